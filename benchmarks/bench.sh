@@ -0,0 +1,13 @@
+#!/bin/sh
+# Builds the server and the benchmarks, then runs them with the allocation profiler.
+# Any arguments go to JMH, e.g. ./bench.sh CodecBenchmark -p codec=BINARY
+# Results are saved as results/<commit>.csv, compare two runs with
+#   java -cp target/benchmarks.jar Benchmarks.Compare results/<old>.csv results/<new>.csv
+set -e
+cd "$(dirname "$0")"
+mvn -B -q -f ../pom.xml install
+mvn -B -q package
+mkdir -p results
+commit=$(git rev-parse --short HEAD)
+git diff --quiet HEAD -- ../src || commit="$commit-dirty"
+java -jar target/benchmarks.jar -prof gc -rf csv -rff "results/$commit.csv" "$@"
@@ -0,0 +1,80 @@
+package Benchmarks;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Lines up two JMH csv result files, e.g. from two commits, and prints the change in every score.
+ * The allocation rates from -prof gc show up as their own rows.
+ *
+ *   java -cp target/benchmarks.jar Benchmarks.Compare results/old.csv results/new.csv
+ */
+public class Compare {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: Compare <old.csv> <new.csv>");
+            System.exit(1);
+        }
+        Map<String, String[]> before = read(Paths.get(args[0]));
+        Map<String, String[]> after = read(Paths.get(args[1]));
+        System.out.printf("%-70s %14s %14s %9s  %s%n", "Benchmark", "Old", "New", "Change", "Unit");
+        for (Map.Entry<String, String[]> row : after.entrySet()) {
+            String[] old = before.get(row.getKey());
+            double score = Double.parseDouble(row.getValue()[0]);
+            if (old == null) {
+                System.out.printf("%-70s %14s %14.3f %9s  %s%n", row.getKey(), "-", score, "new", row.getValue()[1]);
+                continue;
+            }
+            double oldScore = Double.parseDouble(old[0]);
+            String change = oldScore == 0 ? "-" : String.format("%+8.1f%%", (score - oldScore) * 100 / oldScore);
+            System.out.printf("%-70s %14.3f %14.3f %9s  %s%n", row.getKey(), oldScore, score, change, row.getValue()[1]);
+        }
+        for (String gone : before.keySet()) {
+            if (!after.containsKey(gone)) {
+                System.out.printf("%-70s %14s %14s %9s%n", gone, "", "-", "removed");
+            }
+        }
+    }
+
+    /**
+     * Benchmark name with its parameters, mapped to score and unit
+     */
+    private static Map<String, String[]> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        String[] header = split(lines.get(0));
+        int score = Arrays.asList(header).indexOf("Score");
+        int unit = Arrays.asList(header).indexOf("Unit");
+        Map<String, String[]> rows = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            String[] cells = split(line);
+            StringBuilder name = new StringBuilder(cells[0]);
+            for (int i = unit + 1; i < cells.length; i++) {
+                if (!cells[i].isEmpty()) {
+                    name.append(' ').append(header[i].replace("Param: ", "")).append('=').append(cells[i]);
+                }
+            }
+            rows.put(name.toString(), new String[]{cells[score], cells[unit]});
+        }
+        return rows;
+    }
+
+    private static String[] split(String line) {
+        List<String> cells = new ArrayList<>();
+        StringBuilder cell = new StringBuilder();
+        boolean quoted = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                cells.add(cell.toString());
+                cell.setLength(0);
+            } else {
+                cell.append(c);
+            }
+        }
+        cells.add(cell.toString());
+        return cells.toArray(new String[0]);
+    }
+}
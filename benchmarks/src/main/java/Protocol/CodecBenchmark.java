@@ -0,0 +1,111 @@
+package Protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Encoding and decoding one message of each type with both codecs
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    @Param({"TEXT", "BINARY"})
+    public String codec;
+
+    // every opcode in Protocol, including the ones added after this benchmark was written. A new opcode goes
+    // here too, one left out just isn't measured, and setUp throws on a name Protocol doesn't know
+    @Param({"WELCOME", "MESSAGE", "MOVE", "MOUSE_MOVE", "QUIT", "VALID_MOVE", "OPPONENT_MOVED",
+            "OPPONENT_MOUSE", "VICTORY", "DEFEAT", "TIE", "DISCONNECT", "PROTOCOL", "GAME", "REJOIN",
+            "BOARD", "WATCH", "PLAYED", "RESUME", "RESUMED", "REMATCH", "VARIANT", "MATCH", "HEARTBEAT"})
+    public String message;
+
+    private Codec impl;
+    private int opcode;
+    private int a;
+    private int b;
+    private String text;
+    private final ByteBuffer out = ByteBuffer.allocate(256);
+    private ByteBuffer encoded;
+    private final Frame frame = new Frame();
+
+    @Setup
+    public void setUp() {
+        impl = Protocol.codec(codec.equals("BINARY") ? Protocol.BINARY_VERSION : 0);
+        for (int i = 1; i < Protocol.OPCODES; i++) {
+            if (Protocol.name(i).equals(message)) {
+                opcode = i;
+            }
+        }
+        if (opcode == 0) {
+            throw new IllegalArgumentException("No message called " + message);
+        }
+        switch (opcode) {
+            case Protocol.WELCOME:
+                a = 'P';
+                b = Protocol.BINARY_VERSION;
+                break;
+            case Protocol.PROTOCOL:
+                a = Protocol.BINARY_VERSION;
+                break;
+            case Protocol.MOUSE_MOVE:
+            case Protocol.OPPONENT_MOUSE:
+                a = 7142;
+                b = 0;
+                break;
+            default:
+                a = 5;
+                b = 3;
+        }
+        text = Protocol.KINDS[opcode] == Protocol.TEXT ? text(opcode) : null;
+        impl.encode(opcode, a, b, text, out);
+        out.flip();
+        encoded = ByteBuffer.allocate(out.remaining()).put(out);
+        encoded.flip();
+    }
+
+    /**
+     * Text the size the server really sends with each message
+     */
+    private static String text(int opcode) {
+        switch (opcode) {
+            case Protocol.GAME:
+                return "281474976710657 -2966692776043752288";
+            case Protocol.REJOIN:
+            case Protocol.RESUME:
+                return "281474976710657 -2966692776043752288 17";
+            case Protocol.BOARD:
+                return "_________________________________P___YP_YP";
+            case Protocol.WATCH:
+                return "281474976710657";
+            case Protocol.RESUMED:
+                return "17";
+            case Protocol.VARIANT:
+                return "8 9 5";
+            case Protocol.MATCH:
+                return "4962984959179698313";
+            default:
+                return "Your move";
+        }
+    }
+
+    @Benchmark
+    public int encode() {
+        out.clear();
+        impl.encode(opcode, a, b, text, out);
+        return out.position();
+    }
+
+    @Benchmark
+    public Frame decode() throws ProtocolException {
+        encoded.rewind();
+        impl.decode(encoded, frame);
+        return frame;
+    }
+}
@@ -0,0 +1,111 @@
+package Server;
+
+import Protocol.Variant;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Whole games of random moves, straight on a BitBoard and through Game.legalMove the way the server plays them.
+ * gridBoard plays 20x20 connect 5, divide by the moves it returns to compare the cost of a move with bitBoard.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class PlayoutBenchmark {
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final BitBoard board = new BitBoard();
+    private final BitBoard empty = new BitBoard();
+    private final Variant large = new Variant(20, 20, 5);
+
+    @Benchmark
+    public int bitBoard() {
+        board.copyFrom(empty);
+        int player = 0;
+        while (!board.hasWinner() && !board.isFull()) {
+            board.play(WinDetectionBenchmark.randomColumn(board, random), player);
+            player ^= 1;
+        }
+        return board.moves();
+    }
+
+    @Benchmark
+    public int gridBoard() {
+        GridBoard grid = new GridBoard(large);
+        int player = 0;
+        while (!grid.hasWinner() && !grid.isFull()) {
+            int col;
+            do {
+                col = random.nextInt(large.cols);
+            } while (!grid.canPlay(col));
+            grid.play(col, player);
+            player ^= 1;
+        }
+        return grid.moves();
+    }
+
+    @Benchmark
+    public int game() {
+        Game game = new Game(null, Variant.STANDARD);
+        Bot first = new Bot('P');
+        Bot second = new Bot('Y');
+        first.setOpponent(second);
+        second.setOpponent(first);
+        game.currentPlayer = first;
+        int[] location = new int[2];
+        int moves = 0;
+        while (!game.hasWinner() && !game.boardFilledUp()) {
+            location[1] = random.nextInt(BitBoard.COLS);
+            if (game.legalMove(location, game.currentPlayer)) {
+                moves++;
+            }
+        }
+        return moves;
+    }
+
+    /**
+     * A side which ignores everything it's told
+     */
+    private static final class Bot implements Participant {
+        private final char mark;
+        private Participant opponent;
+
+        Bot(char mark) {
+            this.mark = mark;
+        }
+
+        @Override
+        public char mark() {
+            return mark;
+        }
+
+        @Override
+        public Participant opponent() {
+            return opponent;
+        }
+
+        @Override
+        public void setOpponent(Participant opponent) {
+            this.opponent = opponent;
+        }
+
+        @Override
+        public void ready() {
+        }
+
+        @Override
+        public void otherPlayerMoved(int[] location) {
+        }
+
+        @Override
+        public void opponentMouseMoved(int x, int y) {
+        }
+
+        @Override
+        public void opponentDisconnected() {
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package Server;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Dropping a piece and checking whether it won, over boards from random games.
+ * Every board is one move away from the move being measured, half of which win.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+@State(Scope.Thread)
+public class WinDetectionBenchmark {
+    private static final int BOARDS = 1024;
+
+    /** MID_GAME boards have 10 to 20 pieces, END_GAME boards 30 or more */
+    @Param({"MID_GAME", "END_GAME"})
+    public String phase;
+
+    private final BitBoard[] boards = new BitBoard[BOARDS];
+    private final int[] columns = new int[BOARDS];
+    private final int[] players = new int[BOARDS];
+    private final BitBoard scratch = new BitBoard();
+    private int next;
+
+    @Setup
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(42);
+        int min = phase.equals("MID_GAME") ? 10 : 30;
+        int max = phase.equals("MID_GAME") ? 20 : 40;
+        int found = 0;
+        while (found < BOARDS) {
+            BitBoard board = new BitBoard();
+            int player = 0;
+            int target = min + random.nextInt(max - min + 1);
+            while (board.moves() < target && !board.hasWinner()) {
+                board.play(randomColumn(board, random), player);
+                player ^= 1;
+            }
+            if (board.hasWinner() || board.isFull()) {
+                continue;
+            }
+            // alternate between winning and ordinary last moves
+            int col = pick(board, player, found % 2 == 0);
+            if (col < 0) {
+                continue;
+            }
+            boards[found] = board;
+            columns[found] = col;
+            players[found] = player;
+            found++;
+        }
+    }
+
+    @Benchmark
+    public boolean playAndCheck() {
+        int i = next++ & (BOARDS - 1);
+        scratch.copyFrom(boards[i]);
+        scratch.play(columns[i], players[i]);
+        return scratch.hasWinner();
+    }
+
+    private static int pick(BitBoard board, int player, boolean winning) {
+        BitBoard test = new BitBoard();
+        for (int col = 0; col < BitBoard.COLS; col++) {
+            if (board.canPlay(col)) {
+                test.copyFrom(board);
+                test.play(col, player);
+                if (test.hasWinner() == winning) {
+                    return col;
+                }
+            }
+        }
+        return -1;
+    }
+
+    static int randomColumn(BitBoard board, SplittableRandom random) {
+        int col;
+        do {
+            col = random.nextInt(BitBoard.COLS);
+        } while (!board.canPlay(col));
+        return col;
+    }
+}
@@ -0,0 +1,77 @@
+package Client;
+
+import Logging.Log;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+/**
+ * The client's images, each decoded from disk once for the whole process and kept in the screen's
+ * own pixel format, so drawing them is a plain copy (and Java2D can keep them in video memory).
+ * Every game after the first, and every square of the board, shares the same images.
+ */
+final class Assets {
+    private static final Log log = Log.get(Assets.class);
+    private static final ConcurrentHashMap<String, BufferedImage> images = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ImageIcon> icons = new ConcurrentHashMap<>();
+
+    private Assets() {
+    }
+
+    /**
+     * The image in the file, a blank square if it couldn't be read
+     */
+    static BufferedImage image(String file) {
+        return images.computeIfAbsent(file, Assets::load);
+    }
+
+    /**
+     * The image in the file for a Swing label
+     */
+    static ImageIcon icon(String file) {
+        return icons.computeIfAbsent(file, name -> new ImageIcon(image(name)));
+    }
+
+    /**
+     * Decodes every image up front, so the first game doesn't wait on the disk either
+     */
+    static void preload(String... files) {
+        for (String file : files) {
+            image(file);
+        }
+    }
+
+    private static BufferedImage load(String file) {
+        BufferedImage decoded = null;
+        try {
+            decoded = ImageIO.read(new File(file));
+        } catch (IOException e) {
+            log.warn("Could not load image {}: {}", file, e.getMessage());
+        }
+        if (decoded == null) {
+            return new BufferedImage(50, 50, BufferedImage.TYPE_INT_ARGB);
+        }
+        return compatible(decoded);
+    }
+
+    /**
+     * A copy in the screen's pixel format, or the image as decoded when there is no screen
+     */
+    private static BufferedImage compatible(BufferedImage decoded) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return decoded;
+        }
+        GraphicsConfiguration screen = GraphicsEnvironment.getLocalGraphicsEnvironment()
+            .getDefaultScreenDevice().getDefaultConfiguration();
+        BufferedImage copy = screen.createCompatibleImage(decoded.getWidth(), decoded.getHeight(),
+            decoded.getColorModel().getTransparency());
+        Graphics2D g = copy.createGraphics();
+        g.drawImage(decoded, 0, 0, null);
+        g.dispose();
+        return copy;
+    }
+}
@@ -0,0 +1,191 @@
+package Client;
+
+import Protocol.Protocol;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import javax.swing.JComponent;
+
+/**
+ * The whole board as one component. It paints the grid itself from the shared images in Assets
+ * instead of having a panel and a label for each square, and a piece being placed only
+ * repaints that square.
+ *
+ * The board takes up as much of the window as the classic 6x7 board whatever size the server
+ * sends, so the squares of bigger boards are smaller and their images are scaled down once per size.
+ */
+class BoardView extends JComponent {
+    private static final long serialVersionUID = 1L;
+    // the classic board, which sets the size on screen
+    private static final int CLASSIC_ROWS = 6;
+    private static final int CLASSIC_COLS = 7;
+    private static final int GAP = 2;
+
+    private int rows = CLASSIC_ROWS;
+    private int cols = CLASSIC_COLS;
+    // what is drawn in each square, null while it's empty
+    private transient BufferedImage[][] pieces = new BufferedImage[rows][cols];
+    private final transient BufferedImage empty = Assets.image("empty.jpg");
+    // the shared images shrunk to fit squares of scaledSide pixels
+    private final transient Map<BufferedImage, BufferedImage> scaled = new IdentityHashMap<>();
+    private int scaledSide;
+
+    BoardView(Color background) {
+        setBackground(background);
+        setOpaque(true);
+    }
+
+    /**
+     * Changes the number of rows and columns, emptying the board if they're different
+     */
+    void setGrid(int rows, int cols) {
+        if (rows == this.rows && cols == this.cols) {
+            return;
+        }
+        this.rows = rows;
+        this.cols = cols;
+        pieces = new BufferedImage[rows][cols];
+        repaint();
+    }
+
+    int rows() {
+        return rows;
+    }
+
+    int cols() {
+        return cols;
+    }
+
+    /**
+     * Puts a piece in a square and repaints just that square
+     */
+    void setPiece(int row, int col, BufferedImage piece) {
+        pieces[row][col] = piece;
+        repaint(squareBounds(row, col));
+    }
+
+    /**
+     * Empties every square, for the next game on the same window
+     */
+    void clear() {
+        for (BufferedImage[] row : pieces) {
+            Arrays.fill(row, null);
+        }
+        repaint();
+    }
+
+    boolean isTaken(int row, int col) {
+        return pieces[row][col] != null;
+    }
+
+    /**
+     * The lowest empty row in a column, or -1 if it's full
+     */
+    int lowestEmptyRow(int col) {
+        for (int row = rows - 1; row >= 0; row--) {
+            if (pieces[row][col] == null) {
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Which column a point on the board is over
+     */
+    int columnAt(int x) {
+        return Math.max(0, Math.min(cols - 1, x * cols / Math.max(1, getWidth())));
+    }
+
+    /**
+     * Where a point is across the board, in Protocol.HOVER_SCALE parts of its width
+     */
+    int hoverAt(int x) {
+        return Math.max(0, Math.min(Protocol.HOVER_SCALE - 1, (int) ((long) x * Protocol.HOVER_SCALE / Math.max(1, getWidth()))));
+    }
+
+    /**
+     * The other way round, the point across the board a hover position is at
+     */
+    int xOfHover(int hover) {
+        return (int) ((long) hover * getWidth() / Protocol.HOVER_SCALE);
+    }
+
+    /**
+     * Which row a point on the board is over
+     */
+    int rowAt(int y) {
+        return Math.max(0, Math.min(rows - 1, y * rows / Math.max(1, getHeight())));
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        return new Dimension(CLASSIC_COLS * (empty.getWidth() + 2 * GAP), CLASSIC_ROWS * (empty.getHeight() + 2 * GAP));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(getBackground());
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        int side = Math.min(getWidth() / cols, getHeight() / rows) - 2 * GAP;
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                Rectangle square = squareBounds(row, col);
+                if (!square.intersects(clip)) {
+                    continue;
+                }
+                BufferedImage image = fit(pieces[row][col] != null ? pieces[row][col] : empty, side);
+                g.drawImage(image, square.x + (square.width - image.getWidth()) / 2,
+                    square.y + (square.height - image.getHeight()) / 2, null);
+            }
+        }
+    }
+
+    /**
+     * The image, or a copy shrunk to the side of a square if it's too big for one
+     */
+    private BufferedImage fit(BufferedImage image, int side) {
+        if (side <= 0 || (image.getWidth() <= side && image.getHeight() <= side)) {
+            return image;
+        }
+        if (side != scaledSide) {
+            scaled.clear();
+            scaledSide = side;
+        }
+        return scaled.computeIfAbsent(image, original -> {
+            BufferedImage copy = new BufferedImage(side, side, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = copy.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(original, 0, 0, side, side, null);
+            g.dispose();
+            return copy;
+        });
+    }
+
+    private Rectangle squareBounds(int row, int col) {
+        int x = col * getWidth() / cols;
+        int y = row * getHeight() / rows;
+        return new Rectangle(x, y, (col + 1) * getWidth() / cols - x, (row + 1) * getHeight() / rows - y);
+    }
+
+    /**
+     * The board as text for debugging, P for a piece and _ for an empty square
+     */
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder();
+        for (int row = 0; row < rows; row++) {
+            out.append(System.lineSeparator());
+            for (int col = 0; col < cols; col++) {
+                out.append(pieces[row][col] != null ? "P " : "_ ");
+            }
+        }
+        return out.toString();
+    }
+}
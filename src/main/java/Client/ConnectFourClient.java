@@ -1,73 +1,83 @@
 package Client;
 
+import Logging.Log;
+import Protocol.Protocol;
+import Protocol.Variant;
 import java.awt.*;
-import java.io.*;
 import java.awt.event.*;
-import java.net.Socket;
-import java.awt.Image; 
-import javax.imageio.ImageIO; 
+import java.awt.image.BufferedImage;
 import javax.swing.*;
 
 public class ConnectFourClient {
+    private static final Log log = Log.get(ConnectFourClient.class);
 
     private JFrame frame = new JFrame("Connect 4");
-    private JLabel messageLabel = new JLabel("");
-    private ImageIcon icon;
-    private ImageIcon opponentIcon;
+    private JLabel messageLabel = new JLabel("Hold on while we find you an opponent!");
+    private BufferedImage icon;
+    private BufferedImage opponentIcon;
     private JLabel floatingIcon;
     private JLabel opponentMouseIcon;
     ImageIcon floatingIconOpponent;
     ImageIcon floatingIconPlayer;
-    private Square[][] board = new Square[6][7];
-    private Square currentSquare;
+    private final BoardView board;
+    // column of the move waiting for VALID_MOVE
+    private int movedColumn;
 
     private static int PORT = 8901;
-    private Socket socket;
-    private BufferedReader in;
-    private PrintWriter out;
+    // reading and writing happen on its own threads, what it reads is handled on the EDT by handle()
+    private ServerConnection connection;
+    private char mark;
+    // watching someone else's game, pieces are drawn pink and yellow as if we were pink
+    private boolean spectating = false;
+    private int pieces = 0;
     private Color bg = new Color(48, 99, 142);
     private Color northBg = new Color(0, 61, 91);
     
-    //Stuff for tracking opponent mouse position
-    private long lastUpdateTime = 0;
-    private static final long UPDATE_INTERVAL = 50; // Update every 50ms
-    private int targetX = 0;
-    private int targetY = 0;
-    private int currentX = 0;
-    private int currentY = 0;
-    private static final double INTERPOLATION_FACTOR = 0.2; // Adjust for smoother/faster interpolation
-    
-    //Stuff for tracking player mouse position
-    private int playerTargetX = 0;
-    private int playerCurrentX = 0;
-    private static final double PLAYER_INTERPOLATION_FACTOR = 0.2; // Adjust for smoother/faster interpolation
-    private long lastMouseMoveTime = System.currentTimeMillis(); // Track the last time the mouse moved
-    private static final long MOUSE_STILL_THRESHOLD = 500; // 0.5 second threshold
-    private Timer mouseStillTimer; // Timer to check for mouse stillness
-    private boolean interpolationEnabled = true;
+    //Stuff for moving the player's and the opponent's floating icons smoothly, only runs while one is moving
+    private final FrameScheduler frames = new FrameScheduler();
+    private FrameScheduler.Glide playerGlide;
+    private FrameScheduler.Glide opponentGlide;
     
     //Stuff for play again or quit 
     private final JButton playAgainButton = new JButton("Play Again");
     private final JButton quitButton = new JButton("Quit");
     private boolean playAgain = false;
     private boolean decisionMade = false;
+    // the game ended with a result and the connection is still up, so Play Again asks for a rematch
+    private boolean rematchPossible = false;
+    // asked for a rematch, the next WELCOME starts it on a clean board
+    private boolean rematchAsked = false;
     JPanel messagePanel = new JPanel(new BorderLayout());
     private final Object lock = new Object(); //shared object to synchronize main method and client 
 
-    public ConnectFourClient(String serverAddress) throws Exception {
+    public static ConnectFourClient connect(String serverAddress) throws Exception {
+        return connect(serverAddress, null, null);
+    }
+
+    /**
+     * Builds the window and connects to the server, nothing is read until play()
+     * @param watch id of the game to spectate, empty for the newest game, or null to play
+     * @param variant the board to ask for, e.g. "8x9/5", or null for the server's
+     */
+    public static ConnectFourClient connect(String serverAddress, String watch, String variant) throws Exception {
+        ConnectFourClient client = new ConnectFourClient(watch);
+        // creating a socket on the specified port with the address of the server, once the client is all there to handle what comes back
+        client.connection = new ServerConnection(serverAddress, PORT, watch, variant, new EventDispatcher(client::handle));
+        return client;
+    }
 
-        // creating a socket on the specified port with the address of the server
-        socket = new Socket(serverAddress, PORT);
-        in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-        out = new PrintWriter(socket.getOutputStream(), true);
+    private ConnectFourClient(String watch) {
+        if (watch != null) {
+            messageLabel.setText("Finding the game to watch...");
+        }
 
         // creating the GUI
         ((JComponent) frame.getContentPane()).setDoubleBuffered(true);
         frame.setLayout(new BorderLayout());
 
         // Initialize the floating icons which track player mouse movement
-        floatingIcon = new JLabel(icon);
-        opponentMouseIcon = new JLabel(opponentIcon);
+        floatingIcon = new JLabel();
+        opponentMouseIcon = new JLabel();
 
         // North Panel for Floating Icons
         JPanel northPanel = new JPanel();
@@ -90,12 +100,23 @@ public class ConnectFourClient {
         playAgainButton.addActionListener(new ActionListener(){
             @Override
             public void actionPerformed(ActionEvent e){
+                if (rematchPossible) {
+                    // same opponent, same connection
+                    rematchPossible = false;
+                    rematchAsked = true;
+                    connection.rematch();
+                    hidePlayAgainPanel();
+                    messageLabel.setText("Waiting for your opponent to accept the rematch");
+                    return;
+                }
                 synchronized(lock){
                     playAgain = true;
                     decisionMade = true;
                     lock.notify();
+                    frames.stop();
+                    connection.quit();
                     frame.dispose();
-                    System.out.println("Play again button pressed, playAgain bool is now " + playAgain);
+                    log.debug("Play again button pressed, playAgain bool is now {}", playAgain);
                 }
             }
         });
@@ -108,8 +129,10 @@ public class ConnectFourClient {
                     playAgain = false;
                     decisionMade = true;
                     lock.notify();
+                    frames.stop();
+                    connection.quit();
                     frame.dispose();
-                    System.out.println("Player is quitting");
+                    log.info("Player is quitting");
                 }
             }
         });
@@ -179,49 +202,38 @@ public class ConnectFourClient {
         messagePanel.setBackground(northBg);
         messagePanel.setPreferredSize(new Dimension(frame.getWidth(), 50));
 
-        // board Panel in the Center
-        JPanel boardPanel = new JPanel();
-        boardPanel.setBackground(bg);
-        boardPanel.setLayout(new GridLayout(6, 7, 2, 2));
+        // board in the Center, painted in one go
+        board = new BoardView(bg);
+        JComponent boardPanel = board;
 
         //track mouse movements by adding a motion listener to the board panel
         boardPanel.addMouseMotionListener(new MouseAdapter() {
             @Override
             public void mouseMoved(MouseEvent e) {
                 if (floatingIcon.isVisible()) {
-                    playerTargetX = e.getX(); // Update the target position
-                    lastMouseMoveTime = System.currentTimeMillis(); // Reset the stillness timer
-                    interpolationEnabled = true; // Re-enable interpolation
-                    sendMousePositionToServer(playerTargetX, 0); // Send the target position to the server
+                    playerGlide.moveTo(e.getX(), 0); // Update the target position
+                    sendMousePositionToServer(board.hoverAt(e.getX()), 0); // Send the target position to the server
                 }
             }
         });
 
-        //initialize the board GUI
-        System.out.println("initializing board");
-        for (int i = 0; i < board.length; i++) {
-            final int z = i;
-            for (int k = 0; k < board[i].length; k++) {
-                final int m = k;
-                board[i][k] = new Square(i, k);
-                board[i][k].addMouseListener(new MouseAdapter() {
-                    public void mousePressed(MouseEvent e) {
-                        currentSquare = board[z][m];
-                        //currentSquare.beenClicked = true;
-                        out.println("MOVE " + z + ":" + m);
-                        floatingIcon.setVisible(false);
-                    }
-                });
-
-                boardPanel.add(board[i][k]);
+ 
+        // a click anywhere in a column plays it
+        boardPanel.addMouseListener(new MouseAdapter() {
+            public void mousePressed(MouseEvent e) {
+                if (spectating) {
+                    return;
+                }
+                movedColumn = board.columnAt(e.getX());
+                connection.send(Protocol.MOVE, board.rowAt(e.getY()), movedColumn);
+                floatingIcon.setVisible(false);
             }
-        }
-        System.out.println("Done initializing board");
+        });
         
         // Create a panel for the logo
         JPanel logoPanel = new JPanel();
         logoPanel.setBackground(northBg); // background color for the logo panel
-        ImageIcon logoIcon = new ImageIcon("connect4logo.png"); 
+        ImageIcon logoIcon = Assets.icon("connect4logo.png"); 
         JLabel logoLabel = new JLabel(logoIcon);
         logoPanel.add(logoLabel);
 
@@ -238,9 +250,8 @@ public class ConnectFourClient {
         // add the vertical stack panel to the frame
         frame.getContentPane().add(verticalStackPanel, BorderLayout.CENTER);
         
-        startInterpolation();
-        startPlayerInterpolation();
-        startMouseStillTimer(); 
+        playerGlide = new FrameScheduler.Glide(frames, floatingIcon);
+        opponentGlide = new FrameScheduler.Glide(frames, opponentMouseIcon);
     }
     
     /**
@@ -264,89 +275,53 @@ public class ConnectFourClient {
     private void sendMousePositionToServer(int x, int y) {
         // Send the mouse position to the server for the opponent to see
         // This will allow the opponent to see the floating icon moving when the player moves their mouse
-        out.println("MOUSE_MOVE " + x + ":" + y);
+        connection.sendMouse(x, y);
     }
 
     public void printBoard() {
-        //for debugging, printing board to console to see internal structure
-        for (int i = 0; i < board.length; i++) {
-            for (int j = 0; j < board[i].length; j++) {
-                System.out.print(board[i][j].toString() + " ");
-            }
-            System.out.println();
+        //for debugging, logging the board to see internal structure, skipped unless debug logging is on
+        if (!log.isDebugEnabled()) {
+            return;
         }
-    }
-    
-    private void startMouseStillTimer() {
-        //timer to check how long a players mouse has been still, the idea is that interpolation should stop
-        //so we dont send too much to the server
-        mouseStillTimer = new Timer(100, e -> {
-            long currentTime = System.currentTimeMillis();
-            if (currentTime - lastMouseMoveTime > MOUSE_STILL_THRESHOLD) {
-                // if the mouse has been still for more than the threshold, disable interpolation
-                interpolationEnabled = false;
-            } else {
-                // if the mouse is moving, re-enable interpolation
-                interpolationEnabled = true;
-            }
-        });
-        mouseStillTimer.start();
+        log.debug("Board:{}", board);
     }
     
     private void updateOpponentMousePosition(int x, int y) {
-        targetX = x;
-        targetY = y;
+        opponentGlide.moveTo(board.xOfHover(x), y);
     }
 
     /**
-     * Helps with smoother animation and ensuring we don't send too much info to the server regarding mouse
-     * position
+     * Starts talking to the server, from here on the game runs on the connection's threads and the EDT
      */
-    private void startInterpolation() {
-        Timer timer = new Timer(5, e -> {
-            currentX += (targetX - currentX) * INTERPOLATION_FACTOR;
-            currentY += (targetY - currentY) * INTERPOLATION_FACTOR;
-            opponentMouseIcon.setLocation(currentX, currentY);
-            opponentMouseIcon.getParent().repaint();
-        });
-        timer.start();
+    public void play() {
+        connection.start();
     }
-    
+
     /**
-     * For the other player
+     * Shows one event from the server, always on the EDT
      */
-    private void startPlayerInterpolation() {
-        Timer playerTimer = new Timer(5, e -> {
-            if (interpolationEnabled) {
-                // Interpolate the player's icon position
-                playerCurrentX += (playerTargetX - playerCurrentX) * PLAYER_INTERPOLATION_FACTOR;
-            } else {
-                // Snap to the target position when interpolation is disabled
-                playerCurrentX = playerTargetX;
-            }
-            floatingIcon.setLocation(playerCurrentX, 0);
-            floatingIcon.getParent().repaint(); // Repaint only the necessary area
-        });
-        playerTimer.start();
-    }
-    
-    /**
-     * Contains the logic which is used while the game is running
-     * Handles messages from/to the server
-    */
-    public void play() throws Exception {
-        String response;
-        try {
-            response = in.readLine();
-            if (response.startsWith("WELCOME")) {
-                char mark = response.charAt(8);
+    private void handle(ServerEvent event) {
+        switch (event.kind) {
+            case WELCOME:
+                if (rematchAsked) {
+                    // the rematch started, marks may have swapped
+                    rematchAsked = false;
+                    board.clear();
+                    pieces = 0;
+                    hidePlayAgainPanel();
+                }
+                mark = (char) event.a;
+                if (mark == 'S') {
+                    spectating = true;
+                    mark = 'P';
+                }
                 String playerColour = (mark == 'P' ? "pink" : "yellow");
                 String oppColour = (mark == 'P' ? "yellow" : "pink");
 
-                icon = new ImageIcon(playerColour + ".jpg");
-                opponentIcon = new ImageIcon(oppColour +".jpg");
-                floatingIconPlayer = new ImageIcon(playerColour + "DarkBG.jpg");
-                floatingIconOpponent = new ImageIcon(oppColour +"DarkBG.jpg");
+                icon = Assets.image(playerColour + ".jpg");
+                opponentIcon = Assets.image(oppColour + ".jpg");
+                floatingIconPlayer = Assets.icon(playerColour + "DarkBG.jpg");
+                floatingIconOpponent = Assets.icon(oppColour + "DarkBG.jpg");
 
                 floatingIcon.setIcon(floatingIconPlayer);
                 opponentMouseIcon.setIcon(floatingIconOpponent);
@@ -355,78 +330,117 @@ public class ConnectFourClient {
                 floatingIcon.setVisible(false);
                 opponentMouseIcon.setVisible(false);
                 
-                frame.setTitle("Connect 4 - Player " + playerColour);
-            }
-            while (true) {
-                response = in.readLine();
-                if (response.startsWith("VALID_MOVE")) {
-                    messageLabel.setText("Opponent's Turn");
+                frame.setTitle(spectating ? "Connect 4 - Spectating" : "Connect 4 - Player " + playerColour);
+                break;
 
-                    floatingIcon.setVisible(false);
-                    opponentMouseIcon.setIcon(floatingIconOpponent);
-                    opponentMouseIcon.setVisible(true);
-                    updateBoard(currentSquare);
-                    printBoard();
-
-                } else if (response.startsWith("OPPONENT_MOVED")) {
-                    String coords = response.substring(15);
-                    int row = Integer.parseInt(coords.split(":")[0]);
-                    int col = Integer.parseInt(coords.split(":")[1]);
-                    board[row][col].setIcon(opponentIcon);
-                    board[row][col].beenClicked = true;
-                    board[row][col].repaint();
-                    messageLabel.setText("Your Turn");
-                        
-                   
-                    opponentMouseIcon.setVisible(false);
+            case VARIANT:
+                // sent for every game, a different size starts from an empty board
+                Variant variant = Variant.parse(event.text);
+                board.setGrid(variant.rows, variant.cols);
+                if (!variant.isStandard()) {
+                    frame.setTitle(frame.getTitle() + " - " + variant.describe());
+                }
+                break;
+
+            case BOARD:
+                showBoard(event.text);
+                break;
+
+            case PLAYED:
+                // pink always goes first, so whose piece it is follows from how many are down
+                board.setPiece(event.a, event.b, pieces % 2 == 0 ? icon : opponentIcon);
+                pieces++;
+                break;
+
+            case MOVE_ACCEPTED:
+                messageLabel.setText("Opponent's Turn");
+
+                floatingIcon.setVisible(false);
+                opponentMouseIcon.setIcon(floatingIconOpponent);
+                opponentMouseIcon.setVisible(true);
+                updateBoard(movedColumn);
+                printBoard();
+                break;
+
+            case OPPONENT_MOVED:
+                board.setPiece(event.a, event.b, opponentIcon);
+                messageLabel.setText("Your Turn");
+
+                opponentMouseIcon.setVisible(false);
+                floatingIcon.setIcon(floatingIconPlayer);
+                floatingIcon.setVisible(true);
+
+                printBoard();
+                break;
+
+            case OPPONENT_MOUSE:
+                // Update the opponent's mouse position
+                opponentMouseIcon.setIcon(floatingIconOpponent);
+                opponentMouseIcon.setVisible(true);
+                updateOpponentMousePosition(event.a, event.b);
+                log.trace("Opponent mouse position is: {}:{}", event.a, event.b);
+                break;
+
+            case VICTORY:
+                messageLabel.setText("You win!");
+                rematchPossible = true;
+                showPlayAgainPanel();
+                break;
+            case DEFEAT:
+                messageLabel.setText("You'll get 'em next time!");
+                rematchPossible = true;
+                showPlayAgainPanel();
+                break;
+            case TIE:
+                messageLabel.setText("You tied!");
+                rematchPossible = true;
+                showPlayAgainPanel();
+                break;
+
+            case MESSAGE:
+                if (event.text.contains("Your move")) {
                     floatingIcon.setIcon(floatingIconPlayer);
                     floatingIcon.setVisible(true);
+                } else {
+                    floatingIcon.setVisible(false);
+                }
+                messageLabel.setText(event.text);
+                break;
 
-                    printBoard();
-
-                } else if (response.startsWith("OPPONENT_MOUSE")){
-                    // Extract the opponent's mouse coordinates
-                    String coords = response.substring(response.lastIndexOf(" ")+1);
-                    String[] parts = coords.split(":");
-                    int x = Integer.parseInt(parts[0]);
-                    int y = Integer.parseInt(parts[1]);
-
-                    // Update the opponent's mouse position
-                    opponentMouseIcon.setIcon(floatingIconOpponent);
-                    opponentMouseIcon.setVisible(true);
-                    updateOpponentMousePosition(x, y);
-                    System.out.println("Opponent mouse position is: " + coords);
-                    
-                } else if (response.startsWith("VICTORY")) {
-                    messageLabel.setText("You win!");
-                    showPlayAgainPanel();
-                    break;
-                } else if (response.startsWith("DEFEAT")) {
-                    messageLabel.setText("You'll get 'em next time!");
-                    showPlayAgainPanel();
-                    break;
-                } else if (response.startsWith("TIE")) {
-                    messageLabel.setText("You tied!");
-                    showPlayAgainPanel();
-                    break;
-                } else if (response.startsWith("MESSAGE")) {
-       
-                    if(response.contains("Your move")){
-                        floatingIcon.setIcon(floatingIconPlayer);
-                        floatingIcon.setVisible(true);
-                    }else{
-                        floatingIcon.setVisible(false);
-                    }
-                    messageLabel.setText(response.substring(8));
-                } else if (response.startsWith("DISCONNECT")){
-                    messageLabel.setText(response.substring(11));
-                    showPlayAgainPanel();
-                    break;
+            case GAME_OVER:
+                messageLabel.setText(event.text);
+                rematchPossible = false;
+                rematchAsked = false;
+                showPlayAgainPanel();
+                break;
+
+            case RECONNECTING:
+                messageLabel.setText("Lost the connection, trying to get back into the game...");
+                floatingIcon.setVisible(false);
+                opponentMouseIcon.setVisible(false);
+                break;
+
+            case CONNECTION_LOST:
+                messageLabel.setText("Lost the connection to the server");
+                rematchPossible = false;
+                rematchAsked = false;
+                showPlayAgainPanel();
+                break;
+        }
+    }
+
+    /**
+     * Redraws every square from a BOARD message
+     */
+    private void showBoard(String cells) {
+        for (int i = 0; i < board.rows(); i++) {
+            for (int j = 0; j < board.cols(); j++) {
+                char owner = cells.charAt(i * board.cols() + j);
+                if (owner != '_') {
+                    pieces++;
+                    board.setPiece(i, j, owner == mark ? icon : opponentIcon);
                 }
             }
-            out.println("QUIT");
-        } finally {
-            socket.close();
         }
     }
     
@@ -446,77 +460,46 @@ public class ConnectFourClient {
     }
 
     /**
-     * Finds the lowest row in the board which a chip can be placed in, 
-     * this helps with the "gravity" logic of connect 4
-     * @param row
-     * @param col
-     * @return index of the lowest row (highest index without a chip already in it) 
+     * Hides the buttons again once a rematch is under way
      */
-    private int getLowestAvailableRow(int row, int col) {
-        int lowestRow = board.length - 1;
-        for (int i = board.length - 1; i > -1; i--) {
-            if (board[i][col].toString().equals("_")) {
-                return i;
-            }
-        }
-        return lowestRow;
+    private void hidePlayAgainPanel() {
+        playAgainButton.setVisible(false);
+        quitButton.setVisible(false);
+        messagePanel.revalidate();
+        messagePanel.repaint();
     }
 
     /**
      * When a player makes a move, this updates the board with the new move
-     * @param currentSquare 
+     * @param col the column that was played
      */
-    private void updateBoard(Square currentSquare) {
-        int rowClicked = currentSquare.row;
-        int colClicked = currentSquare.col;
-
-        int lowestRow = getLowestAvailableRow(rowClicked, colClicked);
-
-        Square sq = board[lowestRow][colClicked];
-        sq.beenClicked = true;
-        sq.setIcon(icon);
-        sq.repaint();
-    }
-
-    //this class represents a square on the board
-    static class Square extends JPanel {
-        Image empty;
-        Color bg = new Color(48, 99, 142);
-        JLabel label = new JLabel((Icon) null);
-        int row;
-        int col;
-        boolean beenClicked = false;
-
-        public Square(int row, int col) {
-            this.row = row;
-            this.col = col;
-            setBackground(bg);
-            add(label);
-            
-            try{
-                empty = ImageIO.read(new File("empty.jpg"));
-            }catch(IOException f){
-                System.out.println(f.getMessage());
-            }
-            label.setIcon(new ImageIcon(empty));
-        }
-
-        public void setIcon(Icon icon) {
-            label.setIcon(icon);
-        }
-
-        @Override
-        public String toString() {
-            //Icon ic = label.getIcon();
-            return (beenClicked) ? "P" : "_";
+    private void updateBoard(int col) {
+        int lowestRow = board.lowestEmptyRow(col);
+        if (lowestRow >= 0) {
+            board.setPiece(lowestRow, col, icon);
         }
     }
 
     //runs the program
     public static void main(String[] args) throws Exception {
+        String serverAddress = "localhost";
+        // --watch=<game id> spectates that game, plain --watch the newest one
+        String watch = null;
+        // --variant=<rows>x<columns>/<connect> asks for another board, e.g. --variant=8x9/5
+        String variant = null;
+        for (String arg : args) {
+            if (arg.startsWith("--watch")) {
+                watch = arg.startsWith("--watch=") ? arg.substring("--watch=".length()) : "";
+            } else if (arg.startsWith("--variant=")) {
+                variant = Variant.parse(arg.substring("--variant=".length())).toString();
+            } else {
+                serverAddress = arg;
+            }
+        }
+        // decode every image before the window opens, every game after this reuses them
+        Assets.preload("empty.jpg", "pink.jpg", "yellow.jpg", "pinkDarkBG.jpg", "yellowDarkBG.jpg", "connect4logo.png");
         while (true) {
-            String serverAddress = (args.length == 0) ? "localhost" : args[0];
-            ConnectFourClient client = new ConnectFourClient(serverAddress);
+            ConnectFourClient client = ConnectFourClient.connect(serverAddress, watch, variant);
             client.frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
             client.frame.setBounds(50, 50, 600, 660);
             client.frame.setVisible(true);
@@ -529,12 +512,12 @@ public class ConnectFourClient {
             synchronized(client.lock){
                 while(!client.hasDecided()){
                     client.lock.wait();
-                    System.out.println("Client has decided whether to play again? " + client.hasDecided());
+                    log.debug("Client has decided whether to play again? {}", client.hasDecided());
                 } 
             }
             
             if(!client.wantsToPlayAgain()){
-                System.out.println("Client wants to play again? " + client.wantsToPlayAgain());
+                log.debug("Client wants to play again? {}", client.wantsToPlayAgain());
                 break;
             }
             
@@ -542,7 +525,7 @@ public class ConnectFourClient {
             client.playAgain = false;
             client.decisionMade = false;
         }
-        System.out.println("The game session has ended by choice of player.");
+        log.info("The game session has ended by choice of player.");
         System.exit(0);
     }
 }
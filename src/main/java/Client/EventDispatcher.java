@@ -0,0 +1,49 @@
+package Client;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import javax.swing.SwingUtilities;
+
+/**
+ * Hands events from the network thread to the EDT in batches. However many events arrive while
+ * the EDT is busy, they go over in one invokeLater and are handled back to back, so Swing
+ * repaints once for the lot. A run of opponent cursor updates is folded into the last one.
+ */
+class EventDispatcher {
+    private final ConcurrentLinkedQueue<ServerEvent> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final Consumer<ServerEvent> handler;
+
+    /**
+     * @param handler called on the EDT for every event
+     */
+    EventDispatcher(Consumer<ServerEvent> handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Queues an event, from any thread
+     */
+    void post(ServerEvent event) {
+        pending.add(event);
+        if (scheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::drain);
+        }
+    }
+
+    private void drain() {
+        // cleared first, an event posted while this runs schedules another drain rather than being missed
+        scheduled.set(false);
+        ServerEvent event = pending.poll();
+        while (event != null) {
+            ServerEvent next = pending.poll();
+            boolean superseded = event.kind == ServerEvent.Kind.OPPONENT_MOUSE
+                && next != null && next.kind == ServerEvent.Kind.OPPONENT_MOUSE;
+            if (!superseded) {
+                handler.accept(event);
+            }
+            event = next;
+        }
+    }
+}
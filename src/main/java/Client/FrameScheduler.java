@@ -0,0 +1,115 @@
+package Client;
+
+import java.awt.Toolkit;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JComponent;
+import javax.swing.Timer;
+
+/**
+ * Runs the client's animations off one Swing timer at no more than 60 frames a second.
+ * The timer only runs while something is moving: it is woken when an animation gets a new target
+ * and stops itself on the first frame where everything has arrived, so an idle window costs nothing.
+ * Everything here happens on the EDT.
+ */
+class FrameScheduler {
+    private static final int FRAME_MILLIS = 1000 / 60;
+
+    /**
+     * Something that moves a little every frame
+     */
+    interface Animation {
+        /**
+         * Moves on by the time since the last frame
+         * @return true while it still has further to go
+         */
+        boolean step(double elapsedMillis);
+    }
+
+    private final Timer timer = new Timer(FRAME_MILLIS, e -> frame());
+    private final List<Animation> animations = new ArrayList<>();
+    private long lastFrame;
+
+    FrameScheduler() {
+        timer.setCoalesce(true);
+    }
+
+    void add(Animation animation) {
+        animations.add(animation);
+    }
+
+    /**
+     * Starts the frames again if they had stopped
+     */
+    void wake() {
+        if (!timer.isRunning()) {
+            lastFrame = System.nanoTime();
+            timer.start();
+        }
+    }
+
+    void stop() {
+        timer.stop();
+    }
+
+    private void frame() {
+        long now = System.nanoTime();
+        double elapsed = (now - lastFrame) / 1_000_000.0;
+        lastFrame = now;
+        boolean moving = false;
+        for (Animation animation : animations) {
+            moving |= animation.step(elapsed);
+        }
+        // push the frame out now rather than whenever the window system gets round to it
+        Toolkit.getDefaultToolkit().sync();
+        if (!moving) {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Eases a component towards where it was last told to go. Moving a component only repaints
+     * the area it left and the area it arrived in, not the whole parent.
+     */
+    static class Glide implements Animation {
+        // the share of the remaining distance covered every 5 ms, as the old 5 ms timers did
+        private static final double FACTOR = 0.2;
+        private static final double STEP_MILLIS = 5;
+
+        private final FrameScheduler frames;
+        private final JComponent component;
+        private double x;
+        private double y;
+        private int targetX;
+        private int targetY;
+
+        Glide(FrameScheduler frames, JComponent component) {
+            this.frames = frames;
+            this.component = component;
+            frames.add(this);
+        }
+
+        void moveTo(int x, int y) {
+            if (x == targetX && y == targetY) {
+                return;
+            }
+            targetX = x;
+            targetY = y;
+            frames.wake();
+        }
+
+        @Override
+        public boolean step(double elapsedMillis) {
+            double share = 1 - Math.pow(1 - FACTOR, elapsedMillis / STEP_MILLIS);
+            x += (targetX - x) * share;
+            y += (targetY - y) * share;
+            // close enough to see no difference, land exactly
+            if (Math.abs(targetX - x) < 0.5 && Math.abs(targetY - y) < 0.5) {
+                x = targetX;
+                y = targetY;
+            }
+            component.setLocation((int) Math.round(x), (int) Math.round(y));
+            return x != targetX || y != targetY;
+        }
+    }
+}
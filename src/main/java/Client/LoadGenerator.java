@@ -0,0 +1,378 @@
+package Client;
+
+import Logging.Log;
+import Metrics.Histogram;
+import Protocol.BinaryCodec;
+import Protocol.Frame;
+import Protocol.FrameReader;
+import Protocol.FrameWriter;
+import Protocol.Protocol;
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless bots which play each other through a running ConnectFourServer and report how it held up.
+ *
+ *   java Client.LoadGenerator --games=10,20,40,80 [--stage-seconds=30] [--think-ms=200] [--hover-hz=30]
+ *                             [--script=4453] [--binary=true] [--host=localhost] [--port=8901]
+ *
+ * Each entry in --games is a stage with that many games going at once (two connections each), the stages
+ * run one after another so a ramp shows where the server saturates. Every bot thinks for --think-ms before
+ * each move while streaming MOUSE_MOVE updates like a real cursor. Moves are random, or follow --script
+ * (columns 1 to 7) while it lasts. Run the server with --ai-after=0 so waiting bots don't get the computer.
+ *
+ * The two bots of a game connect back to back so the lobby pairs them with each other, which is what lets
+ * MOVE to OPPONENT_MOVED be timed across the two connections. Opponent moves which don't match what the
+ * other bot sent are counted as mispaired and left out of that latency.
+ */
+public class LoadGenerator {
+    private static final Log log = Log.get(LoadGenerator.class);
+    private static final int ROWS = 6;
+    private static final int COLS = 7;
+    // row and column steps of the four lines through a square
+    private static final int[][] DIRECTIONS = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+
+    private String host = "localhost";
+    private int port = 8901;
+    private int[] stages = {10};
+    private long stageSeconds = 30;
+    private long thinkMillis = 200;
+    private int hoverHz = 30;
+    private int[] script = new int[0];
+    private boolean binary = true;
+
+    // connecting a game's two bots is done one game at a time so they sit next to each other in the lobby
+    private final Object connectLock = new Object();
+    private volatile Stage stage;
+    private volatile int target;
+    private volatile boolean running = true;
+
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = new LoadGenerator();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (name) {
+                case "--host": generator.host = value; break;
+                case "--port": generator.port = Integer.parseInt(value); break;
+                case "--games": generator.stages = Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray(); break;
+                case "--stage-seconds": generator.stageSeconds = Long.parseLong(value); break;
+                case "--think-ms": generator.thinkMillis = Long.parseLong(value); break;
+                case "--hover-hz": generator.hoverHz = Integer.parseInt(value); break;
+                case "--script": generator.script = value.chars().map(c -> c - '1').toArray(); break;
+                case "--binary": generator.binary = Boolean.parseBoolean(value); break;
+                case "--log": Log.configure(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        generator.run();
+    }
+
+    /**
+     * Runs every stage and prints a line for each, then the summary
+     */
+    private void run() throws InterruptedException {
+        List<Stage> results = new ArrayList<>();
+        ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+        int started = 0;
+        for (int games : stages) {
+            stage = new Stage(games);
+            target = games;
+            for (; started < games; started++) {
+                int index = started;
+                threads.execute(() -> playGames(index));
+            }
+            Thread.sleep(stageSeconds * 1000);
+            stage.finish();
+            results.add(stage);
+            System.out.println(stage);
+        }
+        running = false;
+        threads.shutdownNow();
+        System.out.println(saturation(results));
+    }
+
+    /**
+     * Keeps one game going for as long as the current stage wants this many games
+     */
+    private void playGames(int index) {
+        while (running) {
+            if (index >= target) {
+                return;
+            }
+            Stage current = stage;
+            Bot first;
+            Bot second;
+            try {
+                synchronized (connectLock) {
+                    first = new Bot(current);
+                    second = new Bot(current);
+                }
+            } catch (IOException e) {
+                current.errors.incrementAndGet();
+                log.debug("Couldn't connect: {}", e.getMessage());
+                sleepQuietly(1000);
+                continue;
+            }
+            first.opponent = second;
+            second.opponent = first;
+            Thread other = Thread.ofVirtual().start(second::play);
+            first.play();
+            try {
+                other.join();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Finds the first stage where more games stopped buying much more throughput
+     */
+    private static String saturation(List<Stage> results) {
+        for (int i = 1; i < results.size(); i++) {
+            Stage before = results.get(i - 1);
+            Stage after = results.get(i);
+            double load = (double) after.games / before.games;
+            double gained = before.gamesPerSecond() == 0 ? load : after.gamesPerSecond() / before.gamesPerSecond();
+            // less than half the extra load turned into extra games
+            if (gained - 1 < (load - 1) / 2) {
+                return "Saturated going from " + before.games + " to " + after.games + " concurrent games ("
+                    + String.format("%.1f", before.gamesPerSecond()) + " to "
+                    + String.format("%.1f", after.gamesPerSecond()) + " games/s)";
+            }
+        }
+        return "No saturation seen up to " + results.get(results.size() - 1).games + " concurrent games";
+    }
+
+    private static void sleepQuietly(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * What was measured while one stage ran, latencies are in microseconds
+     */
+    private static class Stage {
+        final int games;
+        final long startedAt = System.nanoTime();
+        long finishedAt;
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong disconnects = new AtomicLong();
+        final AtomicLong mispaired = new AtomicLong();
+        final Histogram pairing = new Histogram();
+        final Histogram validMove = new Histogram();
+        final Histogram opponentMoved = new Histogram();
+
+        Stage(int games) {
+            this.games = games;
+        }
+
+        void finish() {
+            finishedAt = System.nanoTime();
+        }
+
+        double gamesPerSecond() {
+            return completed.get() * 1e9 / (finishedAt - startedAt);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("games=%d  games/s=%.2f  MOVE->VALID_MOVE %s  MOVE->OPPONENT_MOVED %s  pairing %s"
+                    + "  errors=%d disconnects=%d mispaired=%d",
+                games, gamesPerSecond(), millis(validMove), millis(opponentMoved), millis(pairing),
+                errors.get(), disconnects.get(), mispaired.get());
+        }
+
+        private static String millis(Histogram h) {
+            return String.format("p50=%.2f p99=%.2f p999=%.2f ms",
+                h.percentile(50) / 1000.0, h.percentile(99) / 1000.0, h.percentile(99.9) / 1000.0);
+        }
+    }
+
+    /**
+     * One connection playing one game
+     */
+    private class Bot {
+        private final Stage stage;
+        private final Socket socket = new Socket();
+        private final FrameReader in;
+        private final FrameWriter out;
+        private final long connectedAt;
+        private final int[] heights = new int[COLS];
+        // who holds each square from the bottom row up, 0 nobody, 1 this bot, 2 its opponent
+        private final byte[][] cells = new byte[ROWS][COLS];
+        private final SplittableRandom random = new SplittableRandom();
+        private Bot opponent;
+        private char mark;
+        private int moves;
+        private int mouseX = Protocol.HOVER_SCALE / 2;
+        // read by the opponent's thread when its OPPONENT_MOVED arrives
+        private volatile long moveSentAt;
+        private volatile int moveColumn;
+
+        Bot(Stage stage) throws IOException {
+            this.stage = stage;
+            connectedAt = System.nanoTime();
+            socket.connect(new InetSocketAddress(host, port), 5000);
+            socket.setTcpNoDelay(true);
+            in = new FrameReader(new BufferedInputStream(socket.getInputStream()));
+            out = new FrameWriter(socket.getOutputStream());
+        }
+
+        void play() {
+            Frame frame = new Frame();
+            try {
+                while (in.next(frame)) {
+                    long now = System.nanoTime();
+                    switch (frame.opcode) {
+                        case Protocol.WELCOME:
+                            mark = (char) frame.a;
+                            if (binary && frame.b == Protocol.BINARY_VERSION) {
+                                out.send(Protocol.PROTOCOL, Protocol.BINARY_VERSION, 0);
+                                out.setCodec(BinaryCodec.INSTANCE);
+                            }
+                            break;
+                        case Protocol.PROTOCOL:
+                            in.setCodec(Protocol.codec(frame.a));
+                            break;
+                        case Protocol.MESSAGE:
+                            if (frame.text.startsWith("All Players Ready")) {
+                                stage.pairing.record((now - connectedAt) / 1000);
+                            } else if (frame.text.equals("Your move")) {
+                                move();
+                            } else if (frame.text.startsWith("Wait")) {
+                                stage.errors.incrementAndGet();
+                            }
+                            break;
+                        case Protocol.VALID_MOVE:
+                            stage.validMove.record((now - moveSentAt) / 1000);
+                            cells[heights[moveColumn]++][moveColumn] = 1;
+                            moves++;
+                            break;
+                        case Protocol.OPPONENT_MOVED:
+                            if (pairedWithOpponent() && frame.b == opponent.moveColumn) {
+                                stage.opponentMoved.record((now - opponent.moveSentAt) / 1000);
+                            } else {
+                                stage.mispaired.incrementAndGet();
+                            }
+                            int row = heights[frame.b]++;
+                            cells[row][frame.b] = 2;
+                            moves++;
+                            // after a winning move DEFEAT is already on its way, don't play into a finished game
+                            if (moves < ROWS * COLS && !fourThrough(row, frame.b)) {
+                                move();
+                            }
+                            break;
+                        case Protocol.VICTORY:
+                        case Protocol.DEFEAT:
+                        case Protocol.TIE:
+                            // both sides hear about the end, count the game once
+                            if (mark == 'P') {
+                                stage.completed.incrementAndGet();
+                            }
+                            out.send(Protocol.QUIT);
+                            return;
+                        case Protocol.DISCONNECT:
+                            stage.disconnects.incrementAndGet();
+                            return;
+                        case Protocol.HEARTBEAT:
+                            out.send(Protocol.HEARTBEAT);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+                // the server hung up without ending the game
+                stage.disconnects.incrementAndGet();
+            } catch (IOException e) {
+                if (running) {
+                    stage.errors.incrementAndGet();
+                    log.debug("Bot failed: {}", e.getMessage());
+                }
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // already gone
+                }
+            }
+        }
+
+        private boolean pairedWithOpponent() {
+            return opponent != null && opponent.mark != 0 && opponent.mark != mark;
+        }
+
+        /**
+         * Thinks with the cursor moving towards the chosen column, then plays it
+         */
+        private void move() throws IOException {
+            int col = choose();
+            long hoverNanos = hoverHz > 0 ? 1_000_000_000L / hoverHz : Long.MAX_VALUE;
+            long deadline = System.nanoTime() + thinkMillis * 1_000_000;
+            int targetX = (2 * col + 1) * Protocol.HOVER_SCALE / (2 * COLS);
+            // a real cursor wobbles a pixel or ten either way
+            int wobble = Protocol.HOVER_SCALE / 60;
+            while (System.nanoTime() < deadline) {
+                mouseX += (targetX - mouseX) / 3 + random.nextInt(-wobble, wobble + 1);
+                mouseX = Math.max(0, Math.min(Protocol.HOVER_SCALE - 1, mouseX));
+                out.send(Protocol.MOUSE_MOVE, mouseX, 40);
+                checkSent();
+                LockSupport.parkNanos(Math.min(hoverNanos, Math.max(0, deadline - System.nanoTime())));
+            }
+            moveColumn = col;
+            moveSentAt = System.nanoTime();
+            out.send(Protocol.MOVE, 0, col);
+            checkSent();
+        }
+
+        private void checkSent() throws IOException {
+            if (out.checkError()) {
+                throw new IOException("Connection lost");
+            }
+        }
+
+        private int choose() {
+            if (moves < script.length && script[moves] >= 0 && script[moves] < COLS && heights[script[moves]] < ROWS) {
+                return script[moves];
+            }
+            int col;
+            do {
+                col = random.nextInt(COLS);
+            } while (heights[col] >= ROWS);
+            return col;
+        }
+
+        /**
+         * Whether the piece just placed makes four in a row with others of the same owner
+         */
+        private boolean fourThrough(int row, int col) {
+            for (int[] d : DIRECTIONS) {
+                int count = 1 + run(row, col, d[0], d[1]) + run(row, col, -d[0], -d[1]);
+                if (count >= 4) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int run(int row, int col, int dRow, int dCol) {
+            byte owner = cells[row][col];
+            int count = 0;
+            for (int r = row + dRow, c = col + dCol; r >= 0 && r < ROWS && c >= 0 && c < COLS && cells[r][c] == owner; r += dRow, c += dCol) {
+                count++;
+            }
+            return count;
+        }
+    }
+}
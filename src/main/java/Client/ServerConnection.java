@@ -0,0 +1,298 @@
+package Client;
+
+import Logging.Log;
+import Protocol.BinaryCodec;
+import Protocol.Frame;
+import Protocol.FrameReader;
+import Protocol.FrameWriter;
+import Protocol.Protocol;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * The client's side of the connection to the server, kept off the EDT. A reader thread decodes
+ * what the server sends into ServerEvents for the window, dealing with codec switches and resuming
+ * itself, and a writer thread sends what the window asks for so a slow socket never freezes it.
+ */
+class ServerConnection {
+    private static final Log log = Log.get(ServerConnection.class);
+    // reconnecting waits this long at first, doubling up to the max, and gives up after a minute
+    private static final long RESUME_FIRST_DELAY = 250;
+    private static final long RESUME_MAX_DELAY = 8000;
+    private static final long RESUME_GIVE_UP = 60_000;
+
+    private final String serverAddress;
+    private final int port;
+    private final EventDispatcher events;
+    private volatile Socket socket;
+    private FrameReader in;
+    private volatile FrameWriter out;
+    // "<id> <key>" from the server's GAME message
+    private String gameId;
+    // messages of this game Protocol.replayable() counts, the server replays what's after them when we resume
+    private long received = 0;
+    // a game is going on, the server only holds our seat for a resume until it ends
+    private volatile boolean playing = false;
+    // we hung up, whatever the reader hears after that is no news to the window
+    private volatile boolean closing = false;
+
+    private final LinkedBlockingQueue<Outgoing> outbound = new LinkedBlockingQueue<>();
+    // the cursor position waiting in outbound, later positions overwrite it instead of queueing
+    private Outgoing queuedMouse;
+    private Thread reader;
+    private Thread writer;
+
+    /**
+     * Connects straight away, so a server that isn't there fails here
+     * @param watch id of the game to spectate, empty for the newest game, or null to play
+     * @param variant the board to play on, see Protocol.Variant, or null for whatever the server plays
+     */
+    ServerConnection(String serverAddress, int port, String watch, String variant, EventDispatcher events) throws IOException {
+        this.serverAddress = serverAddress;
+        this.port = port;
+        this.events = events;
+        connect();
+        if (watch != null) {
+            out.send(Protocol.WATCH, watch);
+        } else if (variant != null) {
+            out.send(Protocol.VARIANT, variant);
+        }
+    }
+
+    /**
+     * Starts reading and writing
+     */
+    void start() {
+        reader = new Thread(this::read, "network-reader");
+        reader.setDaemon(true);
+        writer = new Thread(this::write, "network-writer");
+        writer.setDaemon(true);
+        reader.start();
+        writer.start();
+    }
+
+    /**
+     * Queues a message for the server
+     */
+    void send(int opcode, int a, int b) {
+        outbound.add(new Outgoing(opcode, a, b));
+    }
+
+    /**
+     * Asks to play the same opponent again after a game ended, the server answers with a new WELCOME
+     */
+    void rematch() {
+        send(Protocol.REMATCH, 0, 0);
+    }
+
+    /**
+     * Tells the server we're leaving and hangs up once that's gone out
+     */
+    void quit() {
+        closing = true;
+        send(Protocol.QUIT, 0, 0);
+    }
+
+    /**
+     * Queues the cursor position, replacing one that hasn't gone out yet
+     */
+    void sendMouse(int x, int y) {
+        synchronized (outbound) {
+            if (queuedMouse != null) {
+                queuedMouse.a = x;
+                queuedMouse.b = y;
+                return;
+            }
+            queuedMouse = new Outgoing(Protocol.MOUSE_MOVE, x, y);
+            outbound.add(queuedMouse);
+        }
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                Outgoing frame = outbound.take();
+                int opcode;
+                int a;
+                int b;
+                synchronized (outbound) {
+                    if (frame == queuedMouse) {
+                        queuedMouse = null;
+                    }
+                    opcode = frame.opcode;
+                    a = frame.a;
+                    b = frame.b;
+                }
+                // whichever connection is current, a message for a dropped one is lost with it
+                out.send(opcode, a, b);
+                if (opcode == Protocol.QUIT) {
+                    closeSocket();
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Reads until the server is done with us, getting back into the game when the connection drops mid game.
+     * Rematches come in on the same connection, so a game ending with a result doesn't stop it.
+     */
+    private void read() {
+        Frame response = new Frame();
+        try {
+            while (true) {
+                boolean over = false;
+                try {
+                    over = readUntilDone(response);
+                } catch (IOException e) {
+                    if (!closing) {
+                        log.info("Lost the connection to the server: {}", e.getMessage());
+                    }
+                }
+                if (over) {
+                    out.send(Protocol.QUIT);
+                    return;
+                }
+                if (closing) {
+                    return;
+                }
+                // the connection dropped mid game, the server holds our seat for a while
+                if (!playing || gameId == null || !reconnect()) {
+                    events.post(ServerEvent.of(ServerEvent.Kind.CONNECTION_LOST));
+                    return;
+                }
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Passes messages on until the server ends things or the connection drops
+     * @return true if the server said it was done with us, false if the connection was lost first
+     */
+    private boolean readUntilDone(Frame response) throws IOException {
+        while (in.next(response)) {
+            if (Protocol.replayable(response.opcode)) {
+                received++;
+            }
+            switch (response.opcode) {
+                case Protocol.WELCOME:
+                    // switch to the binary protocol if the server offers the version we speak,
+                    // everything we send after asking is binary
+                    if (response.b == Protocol.BINARY_VERSION) {
+                        synchronized (out) {
+                            out.send(Protocol.PROTOCOL, Protocol.BINARY_VERSION, 0);
+                            out.setCodec(BinaryCodec.INSTANCE);
+                        }
+                    }
+                    break;
+                case Protocol.PROTOCOL:
+                    // the server's answer is the last text message, the rest are sent with the codec it agreed to
+                    in.setCodec(Protocol.codec(response.a));
+                    break;
+                case Protocol.GAME:
+                    // kept to get back into the game if the connection drops or the server restarts,
+                    // a rematch is a new game so counting starts over unless RESUMED says otherwise
+                    if (!response.text.equals(gameId)) {
+                        received = 0;
+                    }
+                    gameId = response.text;
+                    playing = true;
+                    break;
+                case Protocol.RESUMED:
+                    // what comes next is either what we missed or the whole board
+                    received = Long.parseLong(response.text.trim());
+                    break;
+                case Protocol.HEARTBEAT:
+                    // the server checking we're still here, it hangs up on clients that stay quiet
+                    send(Protocol.HEARTBEAT, 0, 0);
+                    break;
+                default:
+                    break;
+            }
+            ServerEvent event = ServerEvent.from(response);
+            if (event != null) {
+                events.post(event);
+                if (event.endsGame()) {
+                    playing = false;
+                }
+                if (event.endsConnection()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tries to get back into the game, waiting longer after each failed attempt, asking for it with RESUME
+     * @return true once connected again, the server answers with WELCOME and what we missed
+     */
+    private boolean reconnect() {
+        events.post(ServerEvent.of(ServerEvent.Kind.RECONNECTING));
+        closeSocket();
+        long giveUpAt = System.currentTimeMillis() + RESUME_GIVE_UP;
+        long delay = RESUME_FIRST_DELAY;
+        while (System.currentTimeMillis() < giveUpAt) {
+            try {
+                // a little jitter so clients dropped together don't all come back together
+                Thread.sleep(delay / 2 + (long) (Math.random() * delay / 2));
+                delay = Math.min(delay * 2, RESUME_MAX_DELAY);
+                connect();
+                out.send(Protocol.RESUME, gameId + " " + received);
+                return true;
+            } catch (IOException e) {
+                log.debug("Server still not reachable: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private void connect() throws IOException {
+        Socket next = new Socket(serverAddress, port);
+        in = new FrameReader(new BufferedInputStream(next.getInputStream()));
+        out = new FrameWriter(next.getOutputStream());
+        socket = next;
+    }
+
+    /**
+     * Stops both threads and hangs up
+     */
+    void close() {
+        closing = true;
+        if (writer != null) {
+            writer.interrupt();
+        }
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    /**
+     * A message waiting for the writer thread, a and b of a queued cursor position change until it's sent
+     */
+    private static class Outgoing {
+        final int opcode;
+        int a;
+        int b;
+
+        Outgoing(int opcode, int a, int b) {
+            this.opcode = opcode;
+            this.a = a;
+            this.b = b;
+        }
+    }
+}
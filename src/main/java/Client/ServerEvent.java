@@ -0,0 +1,92 @@
+package Client;
+
+import Protocol.Frame;
+import Protocol.Protocol;
+
+/**
+ * Something from the server the window has to show. ServerConnection decodes these on its own
+ * thread, ConnectFourClient handles them on the EDT. Messages which only matter to the connection
+ * itself, like switching codecs or the numbers needed to resume, never become events.
+ */
+final class ServerEvent {
+
+    enum Kind {
+        /** a is our mark, 'S' when spectating */
+        WELCOME,
+        /** text is the size of the board, see Protocol.Variant */
+        VARIANT,
+        /** text is the whole board, see Protocol.BOARD */
+        BOARD,
+        /** a piece went in at a (row), b (column), for spectators */
+        PLAYED,
+        /** our move went through */
+        MOVE_ACCEPTED,
+        /** the opponent's piece went in at a (row), b (column) */
+        OPPONENT_MOVED,
+        /** the opponent's cursor is at a (x), b (y) */
+        OPPONENT_MOUSE,
+        VICTORY,
+        DEFEAT,
+        TIE,
+        /** text is for the message bar */
+        MESSAGE,
+        /** the server ended the game, text says why */
+        GAME_OVER,
+        /** the connection dropped and we're trying to get back in */
+        RECONNECTING,
+        /** the connection dropped and there's no getting back */
+        CONNECTION_LOST
+    }
+
+    final Kind kind;
+    final int a;
+    final int b;
+    final String text;
+
+    private ServerEvent(Kind kind, int a, int b, String text) {
+        this.kind = kind;
+        this.a = a;
+        this.b = b;
+        this.text = text;
+    }
+
+    static ServerEvent of(Kind kind) {
+        return new ServerEvent(kind, 0, 0, null);
+    }
+
+    /**
+     * The event for a message from the server, null if it isn't one the window cares about
+     */
+    static ServerEvent from(Frame frame) {
+        switch (frame.opcode) {
+            case Protocol.WELCOME: return new ServerEvent(Kind.WELCOME, frame.a, 0, null);
+            case Protocol.VARIANT: return new ServerEvent(Kind.VARIANT, 0, 0, frame.text);
+            case Protocol.BOARD: return new ServerEvent(Kind.BOARD, 0, 0, frame.text);
+            case Protocol.PLAYED: return new ServerEvent(Kind.PLAYED, frame.a, frame.b, null);
+            case Protocol.VALID_MOVE: return of(Kind.MOVE_ACCEPTED);
+            case Protocol.OPPONENT_MOVED: return new ServerEvent(Kind.OPPONENT_MOVED, frame.a, frame.b, null);
+            case Protocol.OPPONENT_MOUSE: return new ServerEvent(Kind.OPPONENT_MOUSE, frame.a, frame.b, null);
+            case Protocol.VICTORY: return of(Kind.VICTORY);
+            case Protocol.DEFEAT: return of(Kind.DEFEAT);
+            case Protocol.TIE: return of(Kind.TIE);
+            case Protocol.MESSAGE: return new ServerEvent(Kind.MESSAGE, 0, 0, frame.text);
+            case Protocol.DISCONNECT: return new ServerEvent(Kind.GAME_OVER, 0, 0, frame.text);
+            default: return null;
+        }
+    }
+
+    /**
+     * Whether the game is over once this has happened
+     */
+    boolean endsGame() {
+        return kind == Kind.VICTORY || kind == Kind.DEFEAT || kind == Kind.TIE || endsConnection();
+    }
+
+    /**
+     * Whether the server is done with us once this has happened. A game that ended with a result
+     * leaves the connection open for a rematch.
+     */
+    boolean endsConnection() {
+        return kind == Kind.GAME_OVER || kind == Kind.CONNECTION_LOST;
+    }
+}
@@ -0,0 +1,190 @@
+package Logging;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring buffer between the threads that log and a single writer thread.
+ *
+ * Logging threads claim a slot with a CAS and fill it in, the writer formats the
+ * message and writes it to stdout. Nothing on the logging side blocks: if the ring
+ * is full the message is dropped and counted.
+ */
+final class AsyncAppender implements Runnable {
+    private static final DateTimeFormatter TIME = DateTimeFormatter.ofPattern("HH:mm:ss.SSS");
+
+    private final Entry[] entries;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread writer;
+    private volatile boolean sleeping = false;
+    private long tail = 0;
+    private final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out), StandardCharsets.UTF_8), 1 << 16);
+
+    /**
+     * @param capacity size of the ring, rounded up to a power of two
+     */
+    AsyncAppender(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        entries = new Entry[size];
+        mask = size - 1;
+        for (int i = 0; i < size; i++) {
+            entries[i] = new Entry(i);
+        }
+        writer = new Thread(this, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::drain, "log-drain"));
+    }
+
+    long dropped() {
+        return dropped.sum();
+    }
+
+    void append(long time, Level level, String category, String pattern, Object arg1, Object arg2, Object[] args) {
+        Entry entry;
+        long seq;
+        while (true) {
+            seq = head.get();
+            entry = entries[(int) (seq & mask)];
+            long diff = entry.sequence - seq;
+            if (diff == 0) {
+                if (head.compareAndSet(seq, seq + 1)) {
+                    break;
+                }
+            } else if (diff < 0) {
+                // the writer hasn't freed this slot yet, the ring is full
+                dropped.increment();
+                return;
+            }
+        }
+        entry.time = time;
+        entry.level = level;
+        entry.category = category;
+        entry.pattern = pattern;
+        entry.arg1 = arg1;
+        entry.arg2 = arg2;
+        entry.args = args;
+        entry.sequence = seq + 1;
+        if (sleeping) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    public void run() {
+        while (true) {
+            if (!writeAvailable()) {
+                flush();
+                sleeping = true;
+                // check again now others can see we're going to sleep, so a wakeup isn't missed
+                if (!isAvailable()) {
+                    LockSupport.parkNanos(100_000_000L);
+                }
+                sleeping = false;
+            }
+        }
+    }
+
+    /**
+     * Writes everything still in the ring, used when the program exits
+     */
+    private synchronized void drain() {
+        writeAvailable();
+        flush();
+    }
+
+    private boolean isAvailable() {
+        return entries[(int) (tail & mask)].sequence == tail + 1;
+    }
+
+    /**
+     * Writes all the entries which have been published so far
+     * @return false if there was nothing to write
+     */
+    private synchronized boolean writeAvailable() {
+        boolean wrote = false;
+        while (isAvailable()) {
+            Entry entry = entries[(int) (tail & mask)];
+            write(entry);
+            entry.clear();
+            entry.sequence = tail + entries.length;
+            tail++;
+            wrote = true;
+        }
+        return wrote;
+    }
+
+    private void write(Entry entry) {
+        StringBuilder line = new StringBuilder(128);
+        line.append(TIME.format(LocalTime.ofInstant(Instant.ofEpochMilli(entry.time), ZoneId.systemDefault())))
+            .append(' ').append(entry.level)
+            .append(" [").append(entry.category).append("] ");
+        format(line, entry);
+        line.append(System.lineSeparator());
+        try {
+            out.write(line.toString());
+        } catch (IOException e) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * Substitutes the arguments for the {} placeholders in order
+     */
+    private static void format(StringBuilder line, Entry entry) {
+        String pattern = entry.pattern;
+        int arg = 0;
+        int from = 0;
+        int at;
+        while ((at = pattern.indexOf("{}", from)) >= 0) {
+            line.append(pattern, from, at);
+            if (entry.args != null) {
+                line.append(arg < entry.args.length ? entry.args[arg] : "{}");
+            } else {
+                line.append(arg == 0 ? entry.arg1 : arg == 1 ? entry.arg2 : "{}");
+            }
+            arg++;
+            from = at + 2;
+        }
+        line.append(pattern, from, pattern.length());
+    }
+
+    private void flush() {
+        try {
+            out.flush();
+        } catch (IOException e) {
+            // nowhere left to report it
+        }
+    }
+
+    /**
+     * One slot of the ring. sequence says who owns it: seq + 1 once the message
+     * claimed at seq is ready for the writer, seq + capacity once the writer is done with it.
+     */
+    private static final class Entry {
+        volatile long sequence;
+        long time;
+        Level level;
+        String category;
+        String pattern;
+        Object arg1;
+        Object arg2;
+        Object[] args;
+
+        Entry(long sequence) {
+            this.sequence = sequence;
+        }
+
+        void clear() {
+            pattern = null;
+            arg1 = null;
+            arg2 = null;
+            args = null;
+        }
+    }
+}
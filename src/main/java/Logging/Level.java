@@ -0,0 +1,8 @@
+package Logging;
+
+/**
+ * Log levels, from the most to the least verbose
+ */
+public enum Level {
+    TRACE, DEBUG, INFO, WARN, ERROR, OFF
+}
@@ -0,0 +1,157 @@
+package Logging;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A logging category, e.g. "Server.Game". Each category has its own level, configured with a spec like
+ *
+ *   INFO,Server.Game=DEBUG,Client=WARN
+ *
+ * where a bare level sets the default and category=level applies to that category and everything under it.
+ * The spec is read from the connect4.log system property and can be changed at runtime with configure().
+ *
+ * Logging a disabled level costs one volatile read. Messages are handed to an AsyncAppender,
+ * so the calling thread never waits on the console. Use {} as the placeholder for arguments,
+ * and guard anything expensive to build (like board dumps) with isDebugEnabled().
+ */
+public final class Log {
+    private static final ConcurrentHashMap<String, Log> LOGS = new ConcurrentHashMap<>();
+    private static final AsyncAppender APPENDER = new AsyncAppender(8192);
+    private static volatile String spec = System.getProperty("connect4.log", "INFO");
+
+    private final String category;
+    private volatile int threshold;
+
+    private Log(String category) {
+        this.category = category;
+        this.threshold = levelFor(category, spec).ordinal();
+    }
+
+    /**
+     * The log for a category, created on first use
+     */
+    public static Log get(String category) {
+        return LOGS.computeIfAbsent(category, Log::new);
+    }
+
+    /**
+     * The log for a class, its category is the package qualified class name
+     */
+    public static Log get(Class<?> type) {
+        return get(type.getName().replace('$', '.'));
+    }
+
+    /**
+     * Replaces the level spec for every category
+     */
+    public static void configure(String newSpec) {
+        // parse first so a bad spec is rejected before anything changes
+        levelFor("", newSpec);
+        spec = newSpec;
+        for (Log log : LOGS.values()) {
+            log.threshold = levelFor(log.category, newSpec).ordinal();
+        }
+    }
+
+    /**
+     * Number of messages thrown away because the appender could not keep up
+     */
+    public static long dropped() {
+        return APPENDER.dropped();
+    }
+
+    /**
+     * The level of the most specific entry in the spec which covers the category
+     */
+    private static Level levelFor(String category, String spec) {
+        Level level = Level.INFO;
+        int matched = -1;
+        for (String part : spec.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) {
+                continue;
+            }
+            int eq = part.indexOf('=');
+            if (eq < 0) {
+                if (matched < 0) {
+                    level = Level.valueOf(part.toUpperCase());
+                }
+                continue;
+            }
+            String prefix = part.substring(0, eq).trim();
+            boolean covers = category.equals(prefix) || category.startsWith(prefix + ".");
+            Level partLevel = Level.valueOf(part.substring(eq + 1).trim().toUpperCase());
+            if (covers && prefix.length() > matched) {
+                level = partLevel;
+                matched = prefix.length();
+            }
+        }
+        return level;
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    public boolean isTraceEnabled() {
+        return Level.TRACE.ordinal() >= threshold;
+    }
+
+    public boolean isDebugEnabled() {
+        return Level.DEBUG.ordinal() >= threshold;
+    }
+
+    public void trace(String pattern, Object arg1, Object arg2) {
+        log(Level.TRACE, pattern, arg1, arg2, null);
+    }
+
+    public void debug(String message) {
+        log(Level.DEBUG, message, null, null, null);
+    }
+
+    public void debug(String pattern, Object arg1) {
+        log(Level.DEBUG, pattern, arg1, null, null);
+    }
+
+    public void debug(String pattern, Object arg1, Object arg2) {
+        log(Level.DEBUG, pattern, arg1, arg2, null);
+    }
+
+    public void info(String message) {
+        log(Level.INFO, message, null, null, null);
+    }
+
+    public void info(String pattern, Object arg1) {
+        log(Level.INFO, pattern, arg1, null, null);
+    }
+
+    public void info(String pattern, Object arg1, Object arg2) {
+        log(Level.INFO, pattern, arg1, arg2, null);
+    }
+
+    public void info(String pattern, Object... args) {
+        log(Level.INFO, pattern, null, null, args);
+    }
+
+    public void warn(String pattern, Object arg1) {
+        log(Level.WARN, pattern, arg1, null, null);
+    }
+
+    public void warn(String pattern, Object arg1, Object arg2) {
+        log(Level.WARN, pattern, arg1, arg2, null);
+    }
+
+    public void error(String pattern, Object arg1) {
+        log(Level.ERROR, pattern, arg1, null, null);
+    }
+
+    public void error(String pattern, Object arg1, Object arg2) {
+        log(Level.ERROR, pattern, arg1, arg2, null);
+    }
+
+    private void log(Level level, String pattern, Object arg1, Object arg2, Object[] args) {
+        if (level.ordinal() >= threshold) {
+            APPENDER.append(System.currentTimeMillis(), level, category, pattern, arg1, arg2, args);
+        }
+    }
+}
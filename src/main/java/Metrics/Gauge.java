@@ -0,0 +1,22 @@
+package Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A level that goes up and down, like the number of players connected right now
+ */
+public final class Gauge {
+    private final LongAdder adder = new LongAdder();
+
+    public void increment() {
+        adder.increment();
+    }
+
+    public void decrement() {
+        adder.decrement();
+    }
+
+    public long get() {
+        return adder.sum();
+    }
+}
@@ -0,0 +1,146 @@
+package Metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts values into log-linear buckets the way HdrHistogram does, so percentiles are within
+ * about 1.5% of the real value whatever the magnitude. Recording is lock free and allocates
+ * nothing once a thread's stripe exists, so it can sit on hot paths and be written from any number
+ * of threads. Like the Counters, threads don't fight over shared cells: bucket counts are kept in a
+ * few stripes picked by thread and summed when read, count and sum are LongAdders and the max only
+ * writes when it grows.
+ *
+ * Values below 128 get a bucket each, after that every power of two is split into 64 buckets.
+ * Values are whatever unit the caller picks (microseconds for latencies), up to 2^40.
+ */
+public final class Histogram {
+    private static final int SUB_BITS = 7;
+    private static final int LINEAR = 1 << SUB_BITS;
+    private static final int HALF = LINEAR / 2;
+    private static final long MAX_VALUE = (1L << 40) - 1;
+    private static final int BUCKETS = index(MAX_VALUE) + 1;
+    // a power of two, so a thread's stripe is its hash masked
+    private static final int STRIPES = Integer.highestOneBit(Math.min(16, Runtime.getRuntime().availableProcessors()));
+
+    // made the first time a thread records into them, so a histogram only written by one thread stays small
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Adds one value, negatives count as 0 and anything too big as the largest value
+     */
+    public void record(long value) {
+        value = Math.max(0, Math.min(value, MAX_VALUE));
+        stripe().incrementAndGet(index(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public long max() {
+        return max.get();
+    }
+
+    public long sum() {
+        return sum.sum();
+    }
+
+    public double mean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * The value below which the given percentage of recorded values fall
+     * @param percentile between 0 and 100
+     * @return the top of the bucket holding that value, 0 if nothing was recorded
+     */
+    public long percentile(double percentile) {
+        long n = count.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long[] counts = counts();
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestInBucket(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Adds everything recorded in another histogram to this one
+     */
+    public void add(Histogram other) {
+        long[] counts = other.counts();
+        AtomicLongArray mine = stripe();
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts[i] != 0) {
+                mine.addAndGet(i, counts[i]);
+            }
+        }
+        count.add(other.count.sum());
+        sum.add(other.sum.sum());
+        max.accumulate(other.max.get());
+    }
+
+    /**
+     * The bucket counts of the calling thread's stripe
+     */
+    private AtomicLongArray stripe() {
+        int at = Thread.currentThread().hashCode() & (STRIPES - 1);
+        AtomicLongArray stripe = stripes.get(at);
+        if (stripe == null) {
+            stripes.compareAndSet(at, null, new AtomicLongArray(BUCKETS));
+            stripe = stripes.get(at);
+        }
+        return stripe;
+    }
+
+    /**
+     * Every bucket's count, summed over the stripes
+     */
+    private long[] counts() {
+        long[] counts = new long[BUCKETS];
+        for (int s = 0; s < STRIPES; s++) {
+            AtomicLongArray stripe = stripes.get(s);
+            if (stripe != null) {
+                for (int i = 0; i < BUCKETS; i++) {
+                    counts[i] += stripe.get(i);
+                }
+            }
+        }
+        return counts;
+    }
+
+    private static int index(long value) {
+        if (value < LINEAR) {
+            return (int) value;
+        }
+        // keep the top SUB_BITS - 1 bits below the leading one
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BITS - 1);
+        return LINEAR + (shift - 1) * HALF + (int) ((value >>> shift) - HALF);
+    }
+
+    private static long highestInBucket(int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        int shift = (index - LINEAR) / HALF + 1;
+        long sub = (index - LINEAR) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,47 @@
+package Metrics;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves a Registry at /metrics in the Prometheus text format, on one background thread
+ */
+public final class HttpExporter {
+    private final HttpServer server;
+
+    private HttpExporter(HttpServer server) {
+        this.server = server;
+    }
+
+    /**
+     * Starts listening, bind to the loopback address to keep the numbers local
+     */
+    public static HttpExporter start(Registry registry, InetSocketAddress address) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        server.createContext("/metrics", exchange -> {
+            StringBuilder text = new StringBuilder(4096);
+            registry.writeText(text);
+            byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.setExecutor(Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        return new HttpExporter(server);
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,139 @@
+package Metrics;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongSupplier;
+
+/**
+ * Every metric a process exposes, by name. Metrics are created up front and kept in fields,
+ * the registry is only walked when someone reads them through JmxExporter or HttpExporter.
+ *
+ * Names follow the Prometheus conventions: counters end in _total, and histograms are kept in
+ * nanoseconds but shown in seconds as summaries with a few quantiles.
+ */
+public final class Registry {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final List<Family> families = new CopyOnWriteArrayList<>();
+
+    public Counter counter(String name, String help) {
+        Counter counter = new Counter();
+        families.add(new Family(name, help, "counter", new String[]{""}, new Object[]{counter}));
+        return counter;
+    }
+
+    /**
+     * One counter per label value, in the order given, e.g. a counter per message type
+     */
+    public Counter[] counters(String name, String help, String label, String... values) {
+        Counter[] counters = new Counter[values.length];
+        String[] labels = new String[values.length];
+        for (int i = 0; i < values.length; i++) {
+            counters[i] = new Counter();
+            labels[i] = label + "=\"" + values[i] + "\"";
+        }
+        families.add(new Family(name, help, "counter", labels, counters));
+        return counters;
+    }
+
+    public Gauge gauge(String name, String help) {
+        Gauge gauge = new Gauge();
+        families.add(new Family(name, help, "gauge", new String[]{""}, new Object[]{gauge}));
+        return gauge;
+    }
+
+    /**
+     * A gauge worked out whenever it's read
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        families.add(new Family(name, help, "gauge", new String[]{""}, new Object[]{value}));
+    }
+
+    /**
+     * A histogram of durations recorded in nanoseconds
+     */
+    public Histogram timer(String name, String help) {
+        Histogram histogram = new Histogram();
+        families.add(new Family(name, help, "summary", new String[]{""}, new Object[]{histogram}));
+        return histogram;
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format
+     */
+    public void writeText(StringBuilder out) {
+        for (Family family : families) {
+            out.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (int i = 0; i < family.metrics.length; i++) {
+                Object metric = family.metrics[i];
+                String labels = family.labels[i];
+                if (metric instanceof Histogram) {
+                    Histogram h = (Histogram) metric;
+                    for (double q : QUANTILES) {
+                        out.append(family.name).append("{quantile=\"").append(q).append("\"} ")
+                           .append(h.percentile(q * 100) / 1e9).append('\n');
+                    }
+                    out.append(family.name).append("_sum ").append(h.sum() / 1e9).append('\n');
+                    out.append(family.name).append("_count ").append(h.count()).append('\n');
+                } else {
+                    out.append(family.name);
+                    if (!labels.isEmpty()) {
+                        out.append('{').append(labels).append('}');
+                    }
+                    out.append(' ').append(value(metric)).append('\n');
+                }
+            }
+        }
+    }
+
+    /**
+     * Every current value under a flat name, histograms split into count, max and a few percentiles in nanoseconds
+     */
+    public Map<String, Long> values() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        for (Family family : families) {
+            for (int i = 0; i < family.metrics.length; i++) {
+                Object metric = family.metrics[i];
+                String name = family.labels[i].isEmpty() ? family.name
+                    : family.name + "." + family.labels[i].substring(family.labels[i].indexOf('"') + 1, family.labels[i].length() - 1);
+                if (metric instanceof Histogram) {
+                    Histogram h = (Histogram) metric;
+                    values.put(name + ".count", h.count());
+                    values.put(name + ".p50", h.percentile(50));
+                    values.put(name + ".p99", h.percentile(99));
+                    values.put(name + ".p999", h.percentile(99.9));
+                    values.put(name + ".max", h.max());
+                } else {
+                    values.put(name, value(metric));
+                }
+            }
+        }
+        return values;
+    }
+
+    private static long value(Object metric) {
+        if (metric instanceof Counter) {
+            return ((Counter) metric).get();
+        } else if (metric instanceof Gauge) {
+            return ((Gauge) metric).get();
+        }
+        return ((LongSupplier) metric).getAsLong();
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        final String[] labels;
+        final Object[] metrics;
+
+        Family(String name, String help, String type, String[] labels, Object[] metrics) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+            this.labels = labels;
+            this.metrics = metrics;
+        }
+    }
+}
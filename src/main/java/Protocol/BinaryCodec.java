@@ -0,0 +1,75 @@
+package Protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary framing, version 1. Each message starts with a one byte opcode and the opcode fixes the payload:
+ *
+ *   no payload:  [opcode]                                  1 byte
+ *   ints:        [opcode][a: int16][b: int16]              5 bytes
+ *   text:        [opcode][length: uint16][utf-8 bytes]     3 + length bytes
+ *
+ * Decoding a message without text never allocates.
+ */
+public final class BinaryCodec implements Codec {
+    public static final BinaryCodec INSTANCE = new BinaryCodec();
+
+    private BinaryCodec() {
+    }
+
+    @Override
+    public boolean decode(ByteBuffer in, Frame frame) throws ProtocolException {
+        int start = in.position();
+        if (in.remaining() < 1) {
+            return false;
+        }
+        int opcode = in.get(start) & 0xFF;
+        if (opcode == Protocol.UNKNOWN || opcode >= Protocol.OPCODES) {
+            throw new ProtocolException("Unknown opcode " + opcode);
+        }
+        switch (Protocol.KINDS[opcode]) {
+            case Protocol.INTS:
+                if (in.remaining() < 5) {
+                    return false;
+                }
+                frame.set(opcode, in.getShort(start + 1), in.getShort(start + 3), null);
+                in.position(start + 5);
+                return true;
+            case Protocol.TEXT:
+                if (in.remaining() < 3) {
+                    return false;
+                }
+                int length = in.getShort(start + 1) & 0xFFFF;
+                if (in.remaining() < 3 + length) {
+                    return false;
+                }
+                byte[] bytes = new byte[length];
+                in.position(start + 3);
+                in.get(bytes);
+                frame.set(opcode, 0, 0, new String(bytes, StandardCharsets.UTF_8));
+                return true;
+            default:
+                frame.set(opcode, 0, 0, null);
+                in.position(start + 1);
+                return true;
+        }
+    }
+
+    @Override
+    public void encode(int opcode, int a, int b, String text, ByteBuffer out) {
+        out.put((byte) opcode);
+        switch (Protocol.KINDS[opcode]) {
+            case Protocol.INTS:
+                out.putShort((short) a).putShort((short) b);
+                break;
+            case Protocol.TEXT:
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+                out.putShort((short) bytes.length).put(bytes);
+                break;
+            default:
+                break;
+        }
+    }
+}
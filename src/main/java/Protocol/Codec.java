@@ -0,0 +1,27 @@
+package Protocol;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Turns messages into bytes and back
+ */
+public interface Codec {
+
+    /**
+     * Decodes the next message if all of it is in the buffer.
+     * @param in buffer in read mode, its position is moved past the message only if one was decoded
+     * @param frame filled in with the message
+     * @return false if the buffer doesn't hold a whole message yet
+     * @throws ProtocolException if the bytes can't be a message
+     */
+    boolean decode(ByteBuffer in, Frame frame) throws ProtocolException;
+
+    /**
+     * Encodes a message onto the end of the buffer
+     * @param a ignored unless the opcode carries ints
+     * @param b ignored unless the opcode carries ints
+     * @param text ignored unless the opcode carries text
+     */
+    void encode(int opcode, int a, int b, String text, ByteBuffer out);
+}
@@ -0,0 +1,32 @@
+package Protocol;
+
+/**
+ * One decoded message. Readers fill the same Frame in over and over so
+ * decoding moves and mouse updates doesn't allocate anything.
+ */
+public final class Frame {
+    public int opcode;
+    public int a;
+    public int b;
+    /** only set for messages which carry text */
+    public String text;
+
+    void set(int opcode, int a, int b, String text) {
+        this.opcode = opcode;
+        this.a = a;
+        this.b = b;
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        switch (Protocol.KINDS[opcode]) {
+            case Protocol.INTS:
+                return Protocol.name(opcode) + " " + a + ":" + b;
+            case Protocol.TEXT:
+                return Protocol.name(opcode) + " " + text;
+            default:
+                return Protocol.name(opcode);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package Protocol;
+
+import java.io.*;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads messages from a blocking stream, one at a time, with whichever codec is current.
+ * The codec can be switched between messages, bytes already buffered are decoded with the new one.
+ */
+public class FrameReader {
+    private static final int MAX_FRAME = 4096;
+
+    private final InputStream in;
+    private final ByteBuffer buffer = ByteBuffer.allocate(MAX_FRAME);
+    private volatile Codec codec = TextCodec.INSTANCE;
+
+    public FrameReader(InputStream in) {
+        this.in = in;
+        buffer.flip();
+    }
+
+    public void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Blocks until a whole message has arrived
+     * @param frame filled in with the message
+     * @return false if the stream ended first
+     */
+    public boolean next(Frame frame) throws IOException {
+        while (!codec.decode(buffer, frame)) {
+            buffer.compact();
+            if (!buffer.hasRemaining()) {
+                throw new ProtocolException("Message longer than " + MAX_FRAME + " bytes");
+            }
+            int read = in.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (read < 0) {
+                buffer.flip();
+                return false;
+            }
+            buffer.position(buffer.position() + read);
+            buffer.flip();
+        }
+        return true;
+    }
+}
@@ -0,0 +1,66 @@
+package Protocol;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes messages to a blocking stream with whichever codec is current, flushing each one.
+ * Like PrintWriter, a failed write is remembered instead of thrown, see checkError().
+ * All methods lock the writer, so holding its monitor keeps other threads from writing in between.
+ */
+public class FrameWriter {
+    private final OutputStream out;
+    private final ByteBuffer scratch = ByteBuffer.allocate(4096);
+    private Codec codec = TextCodec.INSTANCE;
+    private boolean error = false;
+
+    public FrameWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    public synchronized void setCodec(Codec codec) {
+        this.codec = codec;
+    }
+
+    public synchronized void send(int opcode) {
+        send(opcode, 0, 0, null);
+    }
+
+    public synchronized void send(int opcode, int a, int b) {
+        send(opcode, a, b, null);
+    }
+
+    public synchronized void send(int opcode, String text) {
+        send(opcode, 0, 0, text);
+    }
+
+    public synchronized void send(int opcode, int a, int b, String text) {
+        scratch.clear();
+        codec.encode(opcode, a, b, text, scratch);
+        try {
+            out.write(scratch.array(), 0, scratch.position());
+            out.flush();
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    /**
+     * Writes a message encoded once for many connections, see SharedFrame
+     */
+    public synchronized void send(SharedFrame frame) {
+        try {
+            frame.writeTo(codec, out);
+            out.flush();
+        } catch (IOException e) {
+            error = true;
+        }
+    }
+
+    /**
+     * Whether any write so far has failed
+     */
+    public synchronized boolean checkError() {
+        return error;
+    }
+}
@@ -0,0 +1,164 @@
+package Protocol;
+
+/**
+ * Message definitions shared by client and server.
+ *
+ * Every message has an opcode and, depending on the opcode, either no payload,
+ * two ints (a row/column pair or x/y mouse coordinates) or a line of text.
+ * Messages are sent as text lines until both sides agree on the binary framing
+ * during the WELCOME handshake:
+ *
+ *   server: WELCOME P BINARY=1     (old clients only look at the mark)
+ *   client: PROTOCOL BINARY 1      (everything the client sends after this is binary)
+ *   server: PROTOCOL BINARY 1      (everything the server sends after this is binary)
+ *
+ * The server answers PROTOCOL BINARY 0 if it can't speak the requested version, and both sides stay on text.
+ */
+public final class Protocol {
+
+    /** version of the binary framing this build speaks */
+    public static final int BINARY_VERSION = 1;
+    /** MOUSE_MOVE and OPPONENT_MOUSE give x in this many parts of the board's width, from the left edge,
+     *  so it doesn't matter how wide either client draws its board. That is what Frame and the codecs'
+     *  callers always see and what binary framing carries, text stays in pixels of the original board,
+     *  see TEXT_HOVER_PIXELS */
+    public static final int HOVER_SCALE = 10_000;
+    /** width of the original client's board, what x means in the text protocol so older clients keep working */
+    public static final int TEXT_HOVER_PIXELS = 584;
+
+    public static final int UNKNOWN = 0;
+    public static final int WELCOME = 1;
+    public static final int MESSAGE = 2;
+    public static final int MOVE = 3;
+    public static final int MOUSE_MOVE = 4;
+    public static final int QUIT = 5;
+    public static final int VALID_MOVE = 6;
+    public static final int OPPONENT_MOVED = 7;
+    public static final int OPPONENT_MOUSE = 8;
+    public static final int VICTORY = 9;
+    public static final int DEFEAT = 10;
+    public static final int TIE = 11;
+    public static final int DISCONNECT = 12;
+    public static final int PROTOCOL = 13;
+    /** "GAME <id> <key>", the key is the player's session token, what gets them back into the game with RESUME */
+    public static final int GAME = 14;
+    /** "REJOIN <id> <key>", sent instead of waiting for an opponent to get back into a game */
+    public static final int REJOIN = 15;
+    /** the whole board, rows times columns characters from the top row down, P, Y or _ */
+    public static final int BOARD = 16;
+    /** "WATCH <id>", sent instead of waiting for an opponent to spectate a game, without an id the newest game */
+    public static final int WATCH = 17;
+    /** a piece was played, row:column, sent to spectators. The board says who plays first from there */
+    public static final int PLAYED = 18;
+
+    /** "RESUME <id> <key> <received>", sent instead of waiting for an opponent to pick a game up again after
+     *  the connection dropped. received is how many replayable messages of the game the client got */
+    public static final int RESUME = 19;
+    /** "<received>", answers RESUME or REJOIN, the number the client's count of replayable messages carries on from */
+    public static final int RESUMED = 20;
+
+    /** sent after VICTORY, DEFEAT or TIE to play the same opponent again on this connection,
+     *  the next game starts with WELCOME once both have asked and whoever moved second moves first */
+    public static final int REMATCH = 21;
+    /** "VARIANT <rows> <columns> <connect>", from a client while it waits the board it wants to play on,
+     *  from the server after GAME (or before BOARD for spectators) the board of this game. See Variant */
+    public static final int VARIANT = 22;
+    /** "MATCH <ticket>", from a client while it waits, it is only paired with someone who sent the same ticket.
+     *  The router sends it ahead of the two clients it matched so the backend seats exactly those two together */
+    public static final int MATCH = 23;
+    /** from the server when it hasn't heard from the client for a while, the client answers with HEARTBEAT.
+     *  A client that stays quiet past the server's idle timeout is disconnected */
+    public static final int HEARTBEAT = 24;
+
+    /** one more than the highest opcode, a new opcode also goes in the benchmarks' CodecBenchmark */
+    public static final int OPCODES = 25;
+
+    /** game ids carry the number of the server node that started the game above this bit,
+     *  so the router can send RESUME, REJOIN and WATCH back to the node that has the game */
+    public static final int NODE_SHIFT = 48;
+
+    /** payload kinds */
+    static final int NONE = 0;
+    static final int INTS = 1;
+    static final int TEXT = 2;
+
+    static final String[] NAMES = new String[OPCODES];
+    static final int[] KINDS = new int[OPCODES];
+
+    static {
+        define(UNKNOWN, "UNKNOWN", TEXT);
+        define(WELCOME, "WELCOME", INTS);
+        define(MESSAGE, "MESSAGE", TEXT);
+        define(MOVE, "MOVE", INTS);
+        define(MOUSE_MOVE, "MOUSE_MOVE", INTS);
+        define(QUIT, "QUIT", NONE);
+        define(VALID_MOVE, "VALID_MOVE", NONE);
+        define(OPPONENT_MOVED, "OPPONENT_MOVED", INTS);
+        define(OPPONENT_MOUSE, "OPPONENT_MOUSE", INTS);
+        define(VICTORY, "VICTORY", NONE);
+        define(DEFEAT, "DEFEAT", NONE);
+        define(TIE, "TIE", NONE);
+        define(DISCONNECT, "DISCONNECT", TEXT);
+        define(PROTOCOL, "PROTOCOL", INTS);
+        define(GAME, "GAME", TEXT);
+        define(REJOIN, "REJOIN", TEXT);
+        define(BOARD, "BOARD", TEXT);
+        define(WATCH, "WATCH", TEXT);
+        define(PLAYED, "PLAYED", INTS);
+        define(RESUME, "RESUME", TEXT);
+        define(RESUMED, "RESUMED", TEXT);
+        define(REMATCH, "REMATCH", NONE);
+        define(VARIANT, "VARIANT", TEXT);
+        define(MATCH, "MATCH", TEXT);
+        define(HEARTBEAT, "HEARTBEAT", NONE);
+    }
+
+    private static void define(int opcode, String name, int kind) {
+        NAMES[opcode] = name;
+        KINDS[opcode] = kind;
+    }
+
+    private Protocol() {
+    }
+
+    /**
+     * The name an opcode has in the text protocol
+     */
+    public static String name(int opcode) {
+        return opcode >= 0 && opcode < OPCODES ? NAMES[opcode] : "UNKNOWN";
+    }
+
+    /**
+     * The node a game id came from, 0 for a server that isn't behind a router
+     */
+    public static int node(long gameId) {
+        return (int) (gameId >>> NODE_SHIFT);
+    }
+
+    /**
+     * Whether a message to a player counts towards the received number in RESUME, and so can be replayed.
+     * Greetings, protocol switches and cursor positions don't count, a resumed client gets those afresh.
+     */
+    public static boolean replayable(int opcode) {
+        switch (opcode) {
+            case WELCOME:
+            case PROTOCOL:
+            case GAME:
+            case RESUMED:
+            case VARIANT:
+            case OPPONENT_MOUSE:
+            case PLAYED:
+            case HEARTBEAT:
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * The codec for a negotiated binary version, or the text codec for version 0
+     */
+    public static Codec codec(int binaryVersion) {
+        return binaryVersion == BINARY_VERSION ? BinaryCodec.INSTANCE : TextCodec.INSTANCE;
+    }
+}
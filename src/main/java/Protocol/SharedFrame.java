@@ -0,0 +1,62 @@
+package Protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A message going to many connections at once. It is encoded at most once per codec,
+ * and every connection writes the same bytes instead of encoding its own copy.
+ */
+public final class SharedFrame {
+    private final int opcode;
+    private final int a;
+    private final int b;
+    private final String text;
+    // racing first uses may both encode, the results are identical so either can win
+    private volatile ByteBuffer asText;
+    private volatile ByteBuffer asBinary;
+
+    public SharedFrame(int opcode, int a, int b, String text) {
+        this.opcode = opcode;
+        this.a = a;
+        this.b = b;
+        this.text = text;
+    }
+
+    public int opcode() {
+        return opcode;
+    }
+
+    /**
+     * The encoded message as a read only view of the shared bytes, with its own position
+     */
+    public ByteBuffer bytes(Codec codec) {
+        return encoded(codec).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the shared bytes straight to a stream
+     */
+    public void writeTo(Codec codec, OutputStream out) throws IOException {
+        ByteBuffer bytes = encoded(codec);
+        out.write(bytes.array(), bytes.arrayOffset(), bytes.limit());
+    }
+
+    private ByteBuffer encoded(Codec codec) {
+        boolean binary = codec == BinaryCodec.INSTANCE;
+        ByteBuffer bytes = binary ? asBinary : asText;
+        if (bytes == null) {
+            ByteBuffer scratch = ByteBuffer.allocate(4096);
+            codec.encode(opcode, a, b, text, scratch);
+            scratch.flip();
+            bytes = ByteBuffer.allocate(scratch.remaining()).put(scratch).flip();
+            if (binary) {
+                asBinary = bytes;
+            } else {
+                asText = bytes;
+            }
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,188 @@
+package Protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The original line based protocol, e.g. "MOVE 3:4" or "MESSAGE Your move".
+ * Parsing works on the raw bytes, only messages carrying text allocate a String.
+ * Cursor positions are pixels on the wire, as older clients send and draw them, and
+ * Protocol.HOVER_SCALE parts of the board everywhere else.
+ */
+public final class TextCodec implements Codec {
+    public static final TextCodec INSTANCE = new TextCodec();
+
+    private static final byte[][] NAME_BYTES = new byte[Protocol.OPCODES][];
+    private static final byte[] BINARY_EQUALS = "BINARY=".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BINARY_SPACE = "BINARY ".getBytes(StandardCharsets.US_ASCII);
+
+    static {
+        for (int i = 0; i < Protocol.OPCODES; i++) {
+            NAME_BYTES[i] = Protocol.NAMES[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private TextCodec() {
+    }
+
+    @Override
+    public boolean decode(ByteBuffer in, Frame frame) {
+        int start = in.position();
+        int limit = in.limit();
+        int newline = -1;
+        for (int i = start; i < limit; i++) {
+            if (in.get(i) == '\n') {
+                newline = i;
+                break;
+            }
+        }
+        if (newline < 0) {
+            return false;
+        }
+        int end = (newline > start && in.get(newline - 1) == '\r') ? newline - 1 : newline;
+        in.position(newline + 1);
+
+        int opcode = match(in, start, end);
+        if (opcode == Protocol.UNKNOWN) {
+            frame.set(Protocol.UNKNOWN, 0, 0, string(in, start, end));
+            return true;
+        }
+        int args = Math.min(start + NAME_BYTES[opcode].length + 1, end);
+        switch (opcode) {
+            case Protocol.WELCOME:
+                // WELCOME <mark>[ BINARY=<version>]
+                frame.set(opcode, args < end ? in.get(args) : ' ', parseInts(in, args + 1, end, 1), null);
+                return true;
+            default:
+                switch (Protocol.KINDS[opcode]) {
+                    case Protocol.INTS:
+                        int a = parseInts(in, args, end, 0);
+                        if (isHover(opcode)) {
+                            a = (int) ((long) a * Protocol.HOVER_SCALE / Protocol.TEXT_HOVER_PIXELS);
+                        }
+                        frame.set(opcode, a, parseInts(in, args, end, 1), null);
+                        return true;
+                    case Protocol.TEXT:
+                        frame.set(opcode, 0, 0, string(in, args, end));
+                        return true;
+                    default:
+                        frame.set(opcode, 0, 0, null);
+                        return true;
+                }
+        }
+    }
+
+    /**
+     * Finds the opcode whose name the line starts with, followed by a space or the end of the line
+     */
+    private static int match(ByteBuffer in, int start, int end) {
+        for (int opcode = 1; opcode < Protocol.OPCODES; opcode++) {
+            byte[] name = NAME_BYTES[opcode];
+            int after = start + name.length;
+            if (after > end || (after < end && in.get(after) != ' ')) {
+                continue;
+            }
+            boolean same = true;
+            for (int i = 0; i < name.length && same; i++) {
+                same = in.get(start + i) == name[i];
+            }
+            if (same) {
+                return opcode;
+            }
+        }
+        return Protocol.UNKNOWN;
+    }
+
+    /**
+     * Reads the index'th run of digits between start and end, e.g. index 1 of "3:4" is 4
+     * @return the number, or 0 if there aren't that many
+     */
+    private static int parseInts(ByteBuffer in, int start, int end, int index) {
+        int i = start;
+        while (i < end) {
+            byte c = in.get(i);
+            if (c == '-' || (c >= '0' && c <= '9')) {
+                boolean negative = c == '-';
+                if (negative) {
+                    i++;
+                }
+                int value = 0;
+                while (i < end && in.get(i) >= '0' && in.get(i) <= '9') {
+                    value = value * 10 + (in.get(i) - '0');
+                    i++;
+                }
+                if (index-- == 0) {
+                    return negative ? -value : value;
+                }
+            } else {
+                i++;
+            }
+        }
+        return 0;
+    }
+
+    private static String string(ByteBuffer in, int start, int end) {
+        byte[] bytes = new byte[Math.max(0, end - start)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = in.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void encode(int opcode, int a, int b, String text, ByteBuffer out) {
+        out.put(NAME_BYTES[opcode]);
+        switch (opcode) {
+            case Protocol.WELCOME:
+                out.put((byte) ' ').put((byte) a);
+                if (b > 0) {
+                    out.put((byte) ' ').put(BINARY_EQUALS);
+                    putInt(out, b);
+                }
+                break;
+            case Protocol.PROTOCOL:
+                out.put((byte) ' ').put(BINARY_SPACE);
+                putInt(out, a);
+                break;
+            default:
+                switch (Protocol.KINDS[opcode]) {
+                    case Protocol.INTS:
+                        out.put((byte) ' ');
+                        putInt(out, isHover(opcode) ? (int) ((long) a * Protocol.TEXT_HOVER_PIXELS / Protocol.HOVER_SCALE) : a);
+                        out.put((byte) ':');
+                        putInt(out, b);
+                        break;
+                    case Protocol.TEXT:
+                        out.put((byte) ' ').put(text.getBytes(StandardCharsets.UTF_8));
+                        break;
+                    default:
+                        break;
+                }
+        }
+        out.put((byte) '\n');
+    }
+
+    private static boolean isHover(int opcode) {
+        return opcode == Protocol.MOUSE_MOVE || opcode == Protocol.OPPONENT_MOUSE;
+    }
+
+    /**
+     * Writes an int as ascii digits without going through a String
+     */
+    private static void putInt(ByteBuffer out, int value) {
+        if (value < 0) {
+            out.put((byte) '-');
+            value = -value;
+        }
+        int digits = 1;
+        for (int v = value; v >= 10; v /= 10) {
+            digits++;
+        }
+        int at = out.position() + digits;
+        for (int i = 1; i <= digits; i++) {
+            out.put(at - i, (byte) ('0' + value % 10));
+            value /= 10;
+        }
+        out.position(at);
+    }
+}
@@ -0,0 +1,85 @@
+package Protocol;
+
+/**
+ * The board a game is played on: how many rows and columns, and how many in a row wins.
+ * The classic game is 6x7 Connect 4, anything from 4x4 up to 20x20 can be asked for.
+ * Sent as the text of a VARIANT message, "<rows> <columns> <connect>".
+ */
+public final class Variant {
+    public static final int MIN_SIZE = 4;
+    public static final int MAX_SIZE = 20;
+    public static final Variant STANDARD = new Variant(6, 7, 4);
+
+    public final int rows;
+    public final int cols;
+    public final int connect;
+
+    /**
+     * @throws IllegalArgumentException if the board is too small or too big, or the line can't fit on it
+     */
+    public Variant(int rows, int cols, int connect) {
+        if (rows < MIN_SIZE || rows > MAX_SIZE || cols < MIN_SIZE || cols > MAX_SIZE) {
+            throw new IllegalArgumentException("Boards go from " + MIN_SIZE + "x" + MIN_SIZE + " to "
+                + MAX_SIZE + "x" + MAX_SIZE + ", not " + rows + "x" + cols);
+        }
+        if (connect < 3 || connect > Math.max(rows, cols)) {
+            throw new IllegalArgumentException("Can't play connect " + connect + " on a " + rows + "x" + cols + " board");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.connect = connect;
+    }
+
+    /**
+     * Reads "<rows> <columns> <connect>" from a VARIANT message, or "<rows>x<columns>/<connect>" from a command line
+     * @throws IllegalArgumentException if it isn't one
+     */
+    public static Variant parse(String text) {
+        String[] parts = text.trim().split("[ x/]+");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Expected rows, columns and connect but got " + text);
+        }
+        Variant variant = new Variant(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+        return variant.equals(STANDARD) ? STANDARD : variant;
+    }
+
+    public boolean isStandard() {
+        return equals(STANDARD);
+    }
+
+    /**
+     * Number of squares on the board, which is also the most moves a game can take
+     */
+    public int squares() {
+        return rows * cols;
+    }
+
+    /**
+     * For people, like "8x9 connect 5"
+     */
+    public String describe() {
+        return rows + "x" + cols + " connect " + connect;
+    }
+
+    /**
+     * The text of a VARIANT message
+     */
+    @Override
+    public String toString() {
+        return rows + " " + cols + " " + connect;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof Variant)) {
+            return false;
+        }
+        Variant variant = (Variant) other;
+        return rows == variant.rows && cols == variant.cols && connect == variant.connect;
+    }
+
+    @Override
+    public int hashCode() {
+        return (rows * 31 + cols) * 31 + connect;
+    }
+}
@@ -0,0 +1,98 @@
+package Router;
+
+import Logging.Log;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * One ConnectFourServer behind the router, started with the same --node number it is given here
+ */
+class Backend {
+    private static final Log log = Log.get(Backend.class);
+    private static final byte[] QUIT = "QUIT\n".getBytes(StandardCharsets.US_ASCII);
+
+    final int node;
+    final InetSocketAddress address;
+    // games placed here and clients spliced through to here so far
+    final LongAdder games = new LongAdder();
+    final LongAdder connections = new LongAdder();
+    // whether new games go here, set by the health checks and by connects that fail
+    private volatile boolean healthy = true;
+
+    Backend(int node, InetSocketAddress address) {
+        this.node = node;
+        this.address = address;
+    }
+
+    /**
+     * Reads "node@host:port", e.g. 1@localhost:9001
+     */
+    static Backend parse(String spec) {
+        int at = spec.indexOf('@');
+        int colon = spec.lastIndexOf(':');
+        if (at < 0 || colon < at) {
+            throw new IllegalArgumentException("Expected node@host:port but got " + spec);
+        }
+        return new Backend(Integer.parseInt(spec.substring(0, at)),
+            new InetSocketAddress(spec.substring(at + 1, colon), Integer.parseInt(spec.substring(colon + 1))));
+    }
+
+    boolean isHealthy() {
+        return healthy;
+    }
+
+    /**
+     * Opens a connection for a client, a backend that can't be reached is taken out of rotation
+     * until a health check finds it again
+     */
+    SocketChannel connect(int timeoutMillis) throws IOException {
+        SocketChannel channel = SocketChannel.open();
+        try {
+            channel.socket().connect(address, timeoutMillis);
+            channel.socket().setTcpNoDelay(true);
+        } catch (IOException e) {
+            channel.close();
+            mark(false, e.getMessage());
+            throw e;
+        }
+        connections.increment();
+        return channel;
+    }
+
+    /**
+     * Connects and says QUIT straight away, which the lobby takes quietly, and marks the backend by how it went
+     */
+    void check(int timeoutMillis) {
+        try (Socket socket = new Socket()) {
+            socket.connect(address, timeoutMillis);
+            OutputStream out = socket.getOutputStream();
+            out.write(QUIT);
+            out.flush();
+            mark(true, null);
+        } catch (IOException e) {
+            mark(false, e.getMessage());
+        }
+    }
+
+    private void mark(boolean up, String reason) {
+        if (healthy == up) {
+            return;
+        }
+        healthy = up;
+        if (up) {
+            log.info("Node {} is back", this);
+        } else {
+            log.warn("Node {} is down: {}", this, reason);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return node + "@" + address.getHostString() + ":" + address.getPort();
+    }
+}
@@ -0,0 +1,52 @@
+package Router;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Consistent hashing of games onto backends. Every backend owns a number of points spread around a
+ * ring of 64 bit hashes and a game goes to the owner of the first point at or after its own hash.
+ * A backend that goes down only gives up the games that would have gone to it, they move on to the
+ * next healthy point along, everyone else's placement stays put.
+ */
+class HashRing {
+    private final TreeMap<Long, Backend> points = new TreeMap<>();
+
+    /**
+     * @param replicas points per backend, more of them spread the load more evenly
+     */
+    HashRing(Iterable<Backend> backends, int replicas) {
+        for (Backend backend : backends) {
+            for (int i = 0; i < replicas; i++) {
+                points.put(mix(((long) backend.node << 32) | i), backend);
+            }
+        }
+    }
+
+    /**
+     * The backend a key goes to, skipping the ones that are down, null if none are up
+     */
+    Backend pick(long key) {
+        long hash = mix(key);
+        for (Backend backend : points.tailMap(hash, true).values()) {
+            if (backend.isHealthy()) {
+                return backend;
+            }
+        }
+        for (Map.Entry<Long, Backend> point : points.headMap(hash, false).entrySet()) {
+            if (point.getValue().isHealthy()) {
+                return point.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The SplitMix64 finalizer, nearby keys end up far apart on the ring
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,172 @@
+package Router;
+
+import Logging.Log;
+import Protocol.Protocol;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A front for several ConnectFourServer processes, so there can be more games than one JVM can hold.
+ *
+ *   java Router.Router --backends=1@localhost:9001,2@localhost:9002 [--port=8901] [--pair-timeout=10]
+ *                      [--announce-ms=50] [--health-ms=1000] [--connect-timeout-ms=1000] [--replicas=64]
+ *
+ * Each backend is started with the node number it's given here, e.g.
+ * java Server.ConnectFourServer --port=9001 --metrics-port=9101 --node=1, which it puts in the top
+ * bits of its game ids so that RESUME, REJOIN and WATCH can find their way back to it.
+ *
+ * Clients connect to the router as they would to a server. The router does the matchmaking: two clients
+ * asking for the same board get a ticket, and the ticket's consistent hash picks the backend the game
+ * is played on. Someone nobody turns up for within --pair-timeout seconds goes to a backend on their
+ * own, which finds them an opponent or the computer (--ai-after on the backends). Every backend is
+ * connected to every --health-ms, and one that can't be reached gets no new games until it can again.
+ */
+public class Router {
+    private static final Log log = Log.get(Router.class);
+
+    final long announceNanos;
+    final long pairTimeoutNanos;
+    final int connectTimeoutMillis;
+    // the second thread of every splice, from backend to client
+    final ExecutorService splices = Executors.newVirtualThreadPerTaskExecutor();
+    private final List<Backend> backends;
+    private final Map<Integer, Backend> nodes = new HashMap<>();
+    private final HashRing ring;
+    // clients waiting for an opponent, one at most for each pool
+    private final Map<String, Session> waiting = new HashMap<>();
+
+    Router(List<Backend> backends, int replicas, long announceMillis, long pairTimeoutSeconds, int connectTimeoutMillis) {
+        this.backends = backends;
+        for (Backend backend : backends) {
+            if (nodes.put(backend.node, backend) != null) {
+                throw new IllegalArgumentException("Node " + backend.node + " is given twice");
+            }
+        }
+        ring = new HashRing(backends, replicas);
+        announceNanos = TimeUnit.MILLISECONDS.toNanos(announceMillis);
+        pairTimeoutNanos = TimeUnit.SECONDS.toNanos(pairTimeoutSeconds);
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = 8901;
+        List<Backend> backends = new ArrayList<>();
+        int replicas = 64;
+        long announceMillis = 50;
+        long pairTimeout = 10;
+        int healthMillis = 1000;
+        int connectTimeout = 1000;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (name) {
+                case "--port": port = Integer.parseInt(value); break;
+                case "--backends":
+                    for (String spec : value.split(",")) {
+                        backends.add(Backend.parse(spec.trim()));
+                    }
+                    break;
+                case "--replicas": replicas = Integer.parseInt(value); break;
+                case "--announce-ms": announceMillis = Long.parseLong(value); break;
+                case "--pair-timeout": pairTimeout = Long.parseLong(value); break;
+                case "--health-ms": healthMillis = Integer.parseInt(value); break;
+                case "--connect-timeout-ms": connectTimeout = Integer.parseInt(value); break;
+                case "--log": Log.configure(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        if (backends.isEmpty()) {
+            throw new IllegalArgumentException("Give the servers to route to with --backends=1@localhost:9001,2@localhost:9002");
+        }
+        Router router = new Router(backends, replicas, announceMillis, pairTimeout, connectTimeout);
+        router.checkHealth(healthMillis);
+        router.run(port);
+    }
+
+    /**
+     * Accepts clients forever, each one is handled on its own virtual thread
+     */
+    void run(int port) throws Exception {
+        ExecutorService sessions = Executors.newVirtualThreadPerTaskExecutor();
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(port));
+            log.info("Connect Four Router is Running on port {}, in front of {}", port, backends);
+            while (true) {
+                SocketChannel client = listener.accept();
+                long connectedAt = System.nanoTime();
+                sessions.execute(new Session(this, client, connectedAt));
+            }
+        } finally {
+            sessions.shutdown();
+        }
+    }
+
+    /**
+     * Starts the thread that connects to every backend in turn, and logs where games went once a minute
+     */
+    private void checkHealth(int intervalMillis) {
+        Thread checker = new Thread(() -> {
+            long nextReport = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+            while (true) {
+                for (Backend backend : backends) {
+                    backend.check(connectTimeoutMillis);
+                }
+                if (System.nanoTime() - nextReport >= 0) {
+                    nextReport += TimeUnit.MINUTES.toNanos(1);
+                    for (Backend backend : backends) {
+                        log.info("Node {}: {}, {} games matched here, {} connections",
+                            backend, backend.isHealthy() ? "up" : "down", backend.games.sum(), backend.connections.sum());
+                    }
+                }
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "router-health");
+        checker.setDaemon(true);
+        checker.start();
+    }
+
+    /**
+     * Matches a client that has finished announcing with whoever is waiting in its pool
+     * @return the ticket for both of them, or null if it's waiting now and will be given one through Session.matched
+     */
+    synchronized Long match(Session session) {
+        Session partner = waiting.remove(session.pool);
+        if (partner == null) {
+            waiting.put(session.pool, session);
+            return null;
+        }
+        long ticket = ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE;
+        partner.matched.complete(ticket);
+        return ticket;
+    }
+
+    /**
+     * Takes a client out of the waiting pool
+     * @return false if it has already been matched
+     */
+    synchronized boolean withdraw(Session session) {
+        return waiting.remove(session.pool, session);
+    }
+
+    /**
+     * Where a new game goes, null if no backend is up
+     */
+    Backend place(long key) {
+        return ring.pick(key);
+    }
+
+    /**
+     * The backend that started a game, null if the id isn't from any of them
+     */
+    Backend owner(long gameId) {
+        return nodes.get(Protocol.node(gameId));
+    }
+}
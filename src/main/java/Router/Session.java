@@ -0,0 +1,269 @@
+package Router;
+
+import Logging.Log;
+import Protocol.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * One client of the router, on its own virtual thread. Until it is routed the client only ever
+ * speaks text, so the router reads what it says to find out where it's going:
+ *
+ *   RESUME, REJOIN or WATCH with a game id go straight to the node that has the game
+ *   plain WATCH goes to any node
+ *   anyone else waits in the router for an opponent who asked for the same board
+ *
+ * Two clients matched here get the same ticket, both go to the node the ticket hashes to and
+ * the node is told with MATCH to seat exactly those two together. From then on the router only
+ * copies bytes both ways and never looks at them again.
+ */
+class Session implements Runnable {
+    private static final Log log = Log.get(Session.class);
+    // nothing a client says before it is routed comes close to this
+    private static final int PENDING_BYTES = 4096;
+    private static final int SPLICE_BYTES = 4096;
+    private static final String NO_SERVERS = "No servers are available, try again later.";
+    // how often a waiting client is checked for having been matched
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Router router;
+    private final SocketChannel client;
+    private final long connectedAt;
+    // what the client said before being routed, the backend gets all of it as it is
+    private final ByteBuffer pending = ByteBuffer.allocate(PENDING_BYTES);
+    private final Frame frame = new Frame();
+    private int scanned = 0;
+    // the board asked for with VARIANT, clients are only matched within the same pool
+    String pool = "";
+    // the ticket of the game, completed by whoever matches this client while it waits
+    final CompletableFuture<Long> matched = new CompletableFuture<>();
+
+    Session(Router router, SocketChannel client, long connectedAt) {
+        this.router = router;
+        this.client = client;
+        this.connectedAt = connectedAt;
+    }
+
+    public void run() {
+        try {
+            client.socket().setTcpNoDelay(true);
+            // the channel's stream honours the read timeout, the channel itself doesn't
+            InputStream in = client.socket().getInputStream();
+
+            // give anyone coming back to a game, here to watch or after another board the chance to say so
+            long announced = connectedAt + router.announceNanos;
+            while (System.nanoTime() < announced) {
+                if (read(in, announced) < 0) {
+                    close(client);
+                    return;
+                }
+                if (scan()) {
+                    direct();
+                    return;
+                }
+            }
+
+            Long ticket = router.match(this);
+            long giveUp = connectedAt + router.pairTimeoutNanos;
+            while (ticket == null && !matched.isDone()) {
+                long now = System.nanoTime();
+                if (now >= giveUp && router.withdraw(this)) {
+                    // nobody here for it, the node can find it an opponent or the computer
+                    long key = ThreadLocalRandom.current().nextLong();
+                    splice(() -> router.place(key), null, NO_SERVERS);
+                    return;
+                }
+                // anything said while waiting other than giving up waits for the backend too
+                if (read(in, Math.min(giveUp, now + POLL_NANOS)) < 0 || (scan() && frame.opcode == Protocol.QUIT)) {
+                    router.withdraw(this);
+                    close(client);
+                    return;
+                }
+            }
+            long key = ticket != null ? ticket : matched.join();
+            splice(() -> router.place(key), key, NO_SERVERS);
+        } catch (IOException e) {
+            log.debug("Client went away before being routed: {}", e.getMessage());
+            router.withdraw(this);
+            close(client);
+        }
+    }
+
+    /**
+     * Reads whatever the client has sent until the deadline
+     * @return bytes read, 0 if nothing came in time, -1 once the client has closed
+     */
+    private int read(InputStream in, long deadline) throws IOException {
+        if (!pending.hasRemaining()) {
+            throw new ProtocolException("Too much said before being routed");
+        }
+        client.socket().setSoTimeout((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+        try {
+            int read = in.read(pending.array(), pending.position(), pending.remaining());
+            if (read > 0) {
+                pending.position(pending.position() + read);
+            }
+            return read;
+        } catch (SocketTimeoutException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Looks at the whole lines that came in since the last scan, taking note of VARIANT
+     * @return true with the message in frame if the client said where it's going or that it's leaving
+     */
+    private boolean scan() {
+        ByteBuffer lines = pending.duplicate();
+        lines.flip();
+        lines.position(scanned);
+        try {
+            while (TextCodec.INSTANCE.decode(lines, frame)) {
+                switch (frame.opcode) {
+                    case Protocol.VARIANT:
+                        try {
+                            pool = Variant.parse(frame.text).toString();
+                        } catch (IllegalArgumentException e) {
+                            // the node tells the client it's playing the default board
+                            pool = "";
+                        }
+                        break;
+                    case Protocol.RESUME:
+                    case Protocol.REJOIN:
+                    case Protocol.WATCH:
+                    case Protocol.QUIT:
+                        return true;
+                    default:
+                        break;
+                }
+            }
+        } finally {
+            scanned = lines.position();
+        }
+        return false;
+    }
+
+    /**
+     * Sends a client that asked for a game by id to the node that has it
+     */
+    private void direct() throws IOException {
+        if (frame.opcode == Protocol.QUIT) {
+            close(client);
+            return;
+        }
+        String text = frame.text == null ? "" : frame.text.trim();
+        if (frame.opcode == Protocol.WATCH && text.isEmpty()) {
+            long key = ThreadLocalRandom.current().nextLong();
+            splice(() -> router.place(key), null, NO_SERVERS);
+            return;
+        }
+        Backend found;
+        try {
+            found = router.owner(Long.parseLong(text.split(" ")[0]));
+        } catch (NumberFormatException e) {
+            found = null;
+        }
+        Backend owner = found;
+        String gone = frame.opcode == Protocol.WATCH ? "No such game." : "That game is no longer available.";
+        if (owner == null) {
+            refuse(gone);
+            return;
+        }
+        splice(() -> owner.isHealthy() ? owner : null, null, gone);
+    }
+
+    /**
+     * Connects to a backend, passes on what the client said so far and copies bytes both ways until
+     * either side closes. Each direction goes through its own direct buffer, so the bytes go from one
+     * socket to the other without ever being copied onto the Java heap.
+     * @param choose the backend to try, asked again after a connect fails, null once there's none left
+     * @param ticket the match ticket, null for a client that wasn't matched here
+     * @param refusal what the client is told if no backend can be reached
+     */
+    private void splice(Supplier<Backend> choose, Long ticket, String refusal) throws IOException {
+        SocketChannel server = null;
+        Backend backend;
+        while (server == null && (backend = choose.get()) != null) {
+            try {
+                server = backend.connect(router.connectTimeoutMillis);
+                if (ticket != null) {
+                    backend.games.increment();
+                }
+                log.debug("Routed client to node {} after {} ms", backend, (System.nanoTime() - connectedAt) / 1_000_000);
+            } catch (IOException e) {
+                // the backend is out of rotation now, the next choice is another one
+            }
+        }
+        if (server == null) {
+            refuse(refusal);
+            return;
+        }
+        ByteBuffer match = ByteBuffer.allocate(64);
+        if (ticket != null) {
+            TextCodec.INSTANCE.encode(Protocol.MATCH, 0, 0, Long.toString(ticket), match);
+        }
+        match.flip();
+        pending.flip();
+        ByteBuffer[] said = {match, pending};
+        // the MATCH alone still has to go out when the client hasn't said anything yet
+        while (match.hasRemaining() || pending.hasRemaining()) {
+            server.write(said);
+        }
+        SocketChannel backendChannel = server;
+        router.splices.execute(() -> pump(backendChannel, client, ByteBuffer.allocateDirect(SPLICE_BYTES)));
+        pump(client, server, ByteBuffer.allocateDirect(SPLICE_BYTES));
+    }
+
+    /**
+     * Copies from one side to the other until either side closes, then closes both
+     */
+    private static void pump(SocketChannel from, SocketChannel to, ByteBuffer buffer) {
+        try {
+            while (from.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    to.write(buffer);
+                }
+                buffer.clear();
+            }
+        } catch (IOException e) {
+            // one side went away, the other one finds out when it's closed
+        } finally {
+            close(from);
+            close(to);
+        }
+    }
+
+    /**
+     * Says why in the text protocol, as the server would, and hangs up
+     */
+    private void refuse(String reason) {
+        ByteBuffer out = ByteBuffer.allocate(128);
+        TextCodec.INSTANCE.encode(Protocol.DISCONNECT, 0, 0, reason, out);
+        out.flip();
+        try {
+            while (out.hasRemaining()) {
+                client.write(out);
+            }
+        } catch (IOException e) {
+            // it's being closed anyway
+        }
+        close(client);
+    }
+
+    private static void close(SocketChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // nothing left to do with it
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package Server;
+
+import Logging.Log;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads the computer opponents think on, kept apart from the threads serving connections.
+ * Each thread has its own Solver, the transposition table budget is split evenly between them.
+ */
+class AIEngine {
+    private static final Log log = Log.get(AIEngine.class);
+
+    final AIPlayer.Difficulty difficulty;
+    final long moveMillis;
+    private final ExecutorService pool;
+    private final ThreadLocal<Solver> solvers;
+    private final OpeningBook book;
+
+    AIEngine(ServerConfig config) {
+        difficulty = config.aiLevel;
+        moveMillis = config.aiMoveMillis;
+        long memoryPerThread = config.aiMemoryMegabytes * 1024L * 1024L / config.aiThreads;
+        solvers = ThreadLocal.withInitial(() -> new Solver(memoryPerThread));
+        book = config.book == null ? null : openBook(config.book);
+        AtomicInteger count = new AtomicInteger();
+        pool = Executors.newFixedThreadPool(config.aiThreads, r -> {
+            Thread thread = new Thread(r, "ai-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs a search on one of the computer's threads
+     */
+    void submit(Runnable search) {
+        pool.execute(search);
+    }
+
+    private static OpeningBook openBook(String path) {
+        try {
+            OpeningBook book = OpeningBook.open(Paths.get(path));
+            log.info("Loaded {} opening book positions from {}", book.size(), path);
+            return book;
+        } catch (IOException e) {
+            log.warn("Couldn't load opening book, playing without it: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * The opening book, null if there isn't one
+     */
+    OpeningBook book() {
+        return book;
+    }
+
+    /**
+     * The solver of the calling thread, only call this from a submitted search
+     */
+    Solver solver() {
+        return solvers.get();
+    }
+}
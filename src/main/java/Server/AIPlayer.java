@@ -0,0 +1,112 @@
+package Server;
+
+import Logging.Log;
+
+/**
+ * The computer as an opponent. It plays through Game.legalMove just like a human does,
+ * but thinks on the AIEngine's threads so a search never holds up a game thread. The board
+ * it thinks about is copied while the game is being changed anyway, so the search never reads it.
+ */
+class AIPlayer implements Participant {
+    private static final Log log = Log.get(AIPlayer.class);
+
+    /**
+     * How far ahead the computer looks
+     */
+    enum Difficulty {
+        EASY(2),
+        MEDIUM(6),
+        HARD(BitBoard.ROWS * BitBoard.COLS);
+
+        final int depth;
+
+        Difficulty(int depth) {
+            this.depth = depth;
+        }
+    }
+
+    private final Game game;
+    private final char mark;
+    private final AIEngine engine;
+    private volatile Participant opponent;
+    private volatile boolean opponentLeft = false;
+
+    AIPlayer(Game game, char mark, AIEngine engine) {
+        this.game = game;
+        this.mark = mark;
+        this.engine = engine;
+    }
+
+    @Override
+    public char mark() {
+        return mark;
+    }
+
+    @Override
+    public Participant opponent() {
+        return opponent;
+    }
+
+    @Override
+    public void setOpponent(Participant opponent) {
+        this.opponent = opponent;
+    }
+
+    @Override
+    public void ready() {
+        if (game.currentPlayer == this) {
+            think();
+        }
+    }
+
+    @Override
+    public void otherPlayerMoved(int[] location) {
+        if (!game.hasWinner() && !game.boardFilledUp()) {
+            think();
+        }
+    }
+
+    /**
+     * Starts a search on a copy of the board as it is now, called from inside Game.run
+     */
+    private void think() {
+        BitBoard board = game.snapshot();
+        engine.submit(() -> move(board));
+    }
+
+    @Override
+    public void opponentMouseMoved(int x, int y) {
+        // nothing to show
+    }
+
+    @Override
+    public void opponentDisconnected() {
+        opponentLeft = true;
+    }
+
+    /**
+     * Searches the copy of the board and plays the best column found in time
+     */
+    private void move(BitBoard board) {
+        if (opponentLeft) {
+            return;
+        }
+        long started = System.nanoTime();
+        long current = board.pieces(Game.indexOf(mark));
+        int col = -1;
+        if (engine.difficulty == Difficulty.HARD && engine.book() != null) {
+            col = engine.book().bestMove(current, board.mask());
+        }
+        if (col < 0) {
+            col = engine.solver().bestMove(current, board.mask(), board.moves(), engine.difficulty.depth, engine.moveMillis);
+        }
+        log.debug("Computer plays column {} after {} ms", col, (System.nanoTime() - started) / 1_000_000);
+        int[] location = {0, col};
+        game.run(() -> game.legalMove(location, this));
+    }
+
+    @Override
+    public String toString() {
+        return Character.toString(mark);
+    }
+}
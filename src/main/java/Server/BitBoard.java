@@ -0,0 +1,181 @@
+package Server;
+
+import java.util.Arrays;
+
+/**
+ * Bitboard representation of the 6x7 connect 4 board.
+ *
+ * Each player's pieces are kept in one long. Bits are laid out column by column,
+ * bottom to top, with one spare bit on top of each column so that shifting a line
+ * of pieces never wraps into the next column:
+ *
+ *  6 13 20 27 34 41 48
+ *  5 12 19 26 33 40 47
+ *  4 11 18 25 32 39 46
+ *  3 10 17 24 31 38 45
+ *  2  9 16 23 30 37 44
+ *  1  8 15 22 29 36 43
+ *  0  7 14 21 28 35 42
+ *
+ * The row numbers handed out by this class match the rest of the server, row 0 is
+ * the top of the board and row 5 is the bottom. Only the classic variant fits, which is
+ * what the computer opponent and the opening book are built on; see GridBoard for the others.
+ */
+class BitBoard implements Board {
+    static final int ROWS = 6;
+    static final int COLS = 7;
+    private static final int H1 = ROWS + 1;
+    private static final int SIZE = ROWS * COLS;
+
+    private long first;
+    private long second;
+    private final int[] heights = new int[COLS];
+    private int moves;
+    private boolean lastMoveWon;
+
+    /**
+     * An independent copy of the board
+     */
+    public BitBoard copy() {
+        BitBoard copy = new BitBoard();
+        copy.copyFrom(this);
+        return copy;
+    }
+
+    /**
+     * Makes this board the same as another one without allocating
+     */
+    public void copyFrom(BitBoard other) {
+        first = other.first;
+        second = other.second;
+        System.arraycopy(other.heights, 0, heights, 0, COLS);
+        moves = other.moves;
+        lastMoveWon = other.lastMoveWon;
+    }
+
+    /**
+     * Empties the board for the next game without allocating
+     */
+    public void reset() {
+        first = 0;
+        second = 0;
+        Arrays.fill(heights, 0);
+        moves = 0;
+        lastMoveWon = false;
+    }
+
+    @Override
+    public int rows() {
+        return ROWS;
+    }
+
+    @Override
+    public int cols() {
+        return COLS;
+    }
+
+    /**
+     * Checks if a piece can be dropped in the column
+     * @param col
+     * @return true if the column exists and is not full
+     */
+    public boolean canPlay(int col) {
+        return col >= 0 && col < COLS && heights[col] < ROWS;
+    }
+
+    /**
+     * Drops a piece for the given player (0 or 1) into the column.
+     * The caller is expected to have checked canPlay first.
+     * @param col
+     * @param player
+     * @return the row (0 is the top) the piece landed in
+     */
+    public int play(int col, int player) {
+        int height = heights[col]++;
+        long move = 1L << (col * H1 + height);
+        if (player == 0) {
+            first |= move;
+            lastMoveWon = isAlignment(first, move);
+        } else {
+            second |= move;
+            lastMoveWon = isAlignment(second, move);
+        }
+        moves++;
+        return ROWS - 1 - height;
+    }
+
+    /**
+     * Whether the last piece that was played made four in a row
+     */
+    public boolean hasWinner() {
+        return lastMoveWon;
+    }
+
+    /**
+     * If the board has no more empty squares this returns true, else false
+     */
+    public boolean isFull() {
+        return moves == SIZE;
+    }
+
+    /**
+     * The pieces of one player (0 or 1) as a bitmap in the layout above
+     */
+    public long pieces(int player) {
+        return player == 0 ? first : second;
+    }
+
+    /**
+     * Every occupied square as a bitmap in the layout above
+     */
+    public long mask() {
+        return first | second;
+    }
+
+    /**
+     * Number of pieces on the board
+     */
+    public int moves() {
+        return moves;
+    }
+
+    /**
+     * Looks up who owns a square
+     * @param row row index, 0 is the top
+     * @param col
+     * @return 0 or 1 for the owning player, -1 if the square is empty
+     */
+    public int cellAt(int row, int col) {
+        long bit = 1L << (col * H1 + (ROWS - 1 - row));
+        if ((first & bit) != 0) {
+            return 0;
+        }
+        if ((second & bit) != 0) {
+            return 1;
+        }
+        return -1;
+    }
+
+    /**
+     * Shift-and-mask test of the four lines running through the last move.
+     * Only the mover's pieces can have formed a new line, so only their board is checked.
+     */
+    private static boolean isAlignment(long pieces, long move) {
+        // vertical, horizontal, and the two diagonals
+        return lineThrough(pieces, move, 1)
+            || lineThrough(pieces, move, H1)
+            || lineThrough(pieces, move, H1 - 1)
+            || lineThrough(pieces, move, H1 + 1);
+    }
+
+    private static boolean lineThrough(long pieces, long move, int dir) {
+        long pairs = pieces & (pieces >>> dir);
+        long fours = pairs & (pairs >>> (2 * dir));
+        if (fours == 0) {
+            return false;
+        }
+        // a four starting at bit b covers b, b+dir, b+2dir, b+3dir; keep the ones that include the move
+        long covered = fours | (fours << dir) | (fours << (2 * dir)) | (fours << (3 * dir));
+        return (covered & move) != 0;
+    }
+}
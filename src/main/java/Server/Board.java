@@ -0,0 +1,50 @@
+package Server;
+
+import Protocol.Variant;
+
+/**
+ * What a game needs from its board. Players are 0 and 1, rows count from 0 at the top.
+ * The classic 6x7 connect 4 game gets a BitBoard, every other variant a GridBoard.
+ */
+interface Board {
+
+    /**
+     * The board for a variant
+     */
+    static Board of(Variant variant) {
+        return variant.isStandard() ? new BitBoard() : new GridBoard(variant);
+    }
+
+    int rows();
+
+    int cols();
+
+    /**
+     * @return true if the column exists and is not full
+     */
+    boolean canPlay(int col);
+
+    /**
+     * Drops a piece for the given player (0 or 1) into the column.
+     * The caller is expected to have checked canPlay first.
+     * @return the row (0 is the top) the piece landed in
+     */
+    int play(int col, int player);
+
+    /**
+     * Whether the last piece that was played completed a line
+     */
+    boolean hasWinner();
+
+    boolean isFull();
+
+    /**
+     * Number of pieces on the board
+     */
+    int moves();
+
+    /**
+     * @return 0 or 1 for the owning player, -1 if the square is empty
+     */
+    int cellAt(int row, int col);
+}
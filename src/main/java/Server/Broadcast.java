@@ -0,0 +1,138 @@
+package Server;
+
+import Logging.Log;
+import Protocol.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Everything that happens in one game, for its spectators.
+ *
+ * Events are appended to a log sized for the game (a move per square and the result). Each is a
+ * SharedFrame, so it is encoded once and every spectator writes the same bytes. Publishing only
+ * appends and hands one wake up to another thread, the players never wait on spectators.
+ * Every spectator has its own cursor into the log and is drained on its own virtual thread,
+ * so a slow one only falls behind itself.
+ */
+class Broadcast {
+    private static final Log log = Log.get(Broadcast.class);
+    private static final ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final SharedFrame[] events;
+    // written from inside Game.run, read by the writers without it
+    private volatile int count = 0;
+    private final CopyOnWriteArrayList<Spectator> watchers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param maxEvents the most events the game can publish
+     */
+    Broadcast(int maxEvents) {
+        events = new SharedFrame[maxEvents];
+    }
+
+    /**
+     * Adds an event, call from inside Game.run
+     */
+    void publish(int opcode, int a, int b, String text) {
+        if (count == events.length) {
+            log.warn("Dropping spectator event {}, the log is full", Protocol.name(opcode));
+            return;
+        }
+        events[count] = new SharedFrame(opcode, a, b, text);
+        count = count + 1;
+        if (!watchers.isEmpty()) {
+            writers.execute(this::wakeAll);
+        }
+    }
+
+    /**
+     * Attaches a spectator, call from inside Game.run so no event can slip in between
+     * the snapshot and the spectator's first event
+     * @param board the board right now, see Game.boardCells()
+     */
+    void watch(Connection connection, Variant variant, String board) {
+        Spectator spectator = new Spectator(connection, count);
+        connection.setHandler(spectator);
+        connection.send(Protocol.WELCOME, 'S', Protocol.BINARY_VERSION);
+        connection.send(Protocol.VARIANT, variant.toString());
+        connection.send(Protocol.BOARD, board);
+        watchers.add(spectator);
+        spectator.wake();
+    }
+
+    /**
+     * Number of spectators right now
+     */
+    int watching() {
+        return watchers.size();
+    }
+
+    private void wakeAll() {
+        for (Spectator spectator : watchers) {
+            spectator.wake();
+        }
+    }
+
+    /**
+     * One watching connection and how far through the log it is
+     */
+    private class Spectator implements ConnectionHandler {
+        private final Connection connection;
+        private final AtomicBoolean draining = new AtomicBoolean();
+        // only touched by whichever writer holds draining
+        private int cursor;
+
+        Spectator(Connection connection, int cursor) {
+            this.connection = connection;
+            this.cursor = cursor;
+        }
+
+        /**
+         * Starts a writer for this spectator unless one is already going
+         */
+        void wake() {
+            if (draining.compareAndSet(false, true)) {
+                writers.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                while (cursor < count) {
+                    SharedFrame event = events[cursor++];
+                    // only queues, a spectator that stops reading is cut off by its connection
+                    connection.send(event);
+                    if (event.opcode() == Protocol.DISCONNECT) {
+                        leave();
+                        return;
+                    }
+                }
+                draining.set(false);
+                // an event published after the loop looked but before the flag was cleared needs another pass
+                if (cursor >= count || !draining.compareAndSet(false, true)) {
+                    return;
+                }
+            }
+        }
+
+        private void leave() {
+            watchers.remove(this);
+            connection.close();
+        }
+
+        @Override
+        public boolean handle(Frame frame) {
+            if (frame.opcode == Protocol.QUIT) {
+                watchers.remove(this);
+                return false;
+            }
+            // spectators have nothing else to say
+            return true;
+        }
+
+        @Override
+        public void disconnected(String reason) {
+            leave();
+        }
+    }
+}
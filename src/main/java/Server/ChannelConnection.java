@@ -0,0 +1,243 @@
+package Server;
+
+import Logging.Log;
+import Protocol.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+
+/**
+ * A non-blocking connection owned by an EventLoop.
+ * Incoming bytes are decoded into messages and handed to the current handler on the loop thread.
+ * Outgoing messages are written straight away when the socket can take them,
+ * otherwise they wait in an OutboundQueue until the selector says the socket is writable again.
+ * A client that lets the queue fill up or stops reading altogether is cut off,
+ * and so is one that answers heartbeats but its Heartbeat hasn't heard from for the idle timeout.
+ */
+class ChannelConnection implements Connection {
+    private static final Log log = Log.get(ChannelConnection.class);
+    private static final int MAX_FRAME = 4096;
+
+    private final SocketChannel channel;
+    private final EventLoop loop;
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(MAX_FRAME);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(MAX_FRAME);
+    private final OutboundQueue queue;
+    private final Heartbeat heartbeat;
+    private final Frame frame = new Frame();
+    private Codec inputCodec = TextCodec.INSTANCE;
+    private Codec outputCodec = TextCodec.INSTANCE;
+    private SelectionKey key;
+    private volatile ConnectionHandler handler;
+    private boolean closed = false;
+
+    ChannelConnection(SocketChannel channel, EventLoop loop, ServerConfig config) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        queue = new OutboundQueue(config);
+        heartbeat = new Heartbeat(this, config, reason -> {
+            log.info("Reaping a client, {}", reason);
+            close();
+            loop.execute(() -> handler.disconnected(reason));
+        });
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    @Override
+    public void setHandler(ConnectionHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Called on the loop thread once the channel has been registered with the selector
+     */
+    synchronized void registered(SelectionKey key) {
+        this.key = key;
+        if (closed) {
+            key.cancel();
+            return;
+        }
+        if (!queue.isEmpty()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+        heartbeat.start();
+    }
+
+    @Override
+    public synchronized void send(int opcode, int a, int b, String text) {
+        if (closed || (opcode == Protocol.OPPONENT_MOUSE && queue.holdHover(a, b))) {
+            return;
+        }
+        ServerMetrics.messagesOut[opcode].increment();
+        writeBuffer.clear();
+        outputCodec.encode(opcode, a, b, text, writeBuffer);
+        writeBuffer.flip();
+        if (queue.isEmpty()) {
+            try {
+                channel.write(writeBuffer);
+            } catch (IOException e) {
+                // the read side will notice the broken socket and tell the handler
+                return;
+            }
+            if (!writeBuffer.hasRemaining()) {
+                return;
+            }
+        }
+        ByteBuffer rest = ByteBuffer.allocate(writeBuffer.remaining());
+        rest.put(writeBuffer).flip();
+        enqueue(rest);
+    }
+
+    /**
+     * Queues the shared bytes themselves, only a view of them is made for this connection
+     */
+    @Override
+    public synchronized void send(SharedFrame frame) {
+        if (closed) {
+            return;
+        }
+        ServerMetrics.messagesOut[frame.opcode()].increment();
+        ByteBuffer bytes = frame.bytes(outputCodec);
+        if (queue.isEmpty()) {
+            try {
+                channel.write(bytes);
+            } catch (IOException e) {
+                return;
+            }
+            if (!bytes.hasRemaining()) {
+                return;
+            }
+        }
+        enqueue(bytes);
+    }
+
+    /**
+     * Queues what the socket couldn't take straight away, call holding the lock
+     */
+    private void enqueue(ByteBuffer bytes) {
+        boolean first = queue.isEmpty();
+        if (!queue.add(bytes, System.nanoTime())) {
+            String reason = queue.stalled(System.nanoTime()) ? "stopped reading" : "fell too far behind";
+            log.info("Cutting off a client that {}", reason);
+            ServerMetrics.slowConsumers.increment();
+            close();
+            // the handler hears about it on the loop thread, not from inside whatever was sending
+            loop.execute(() -> handler.disconnected(reason));
+            return;
+        }
+        if (first) {
+            loop.execute(this::wantWrite);
+        }
+    }
+
+    private synchronized void wantWrite() {
+        if (key != null && key.isValid() && !queue.isEmpty()) {
+            key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Flushes whatever is queued now that the socket has room
+     */
+    synchronized void onWritable() {
+        try {
+            while (true) {
+                ByteBuffer buffer = queue.peek();
+                if (buffer == null) {
+                    // caught up, the cursor position held back meanwhile can go now
+                    long hover = queue.takeOwedHover();
+                    if (hover == OutboundQueue.NONE) {
+                        break;
+                    }
+                    send(Protocol.OPPONENT_MOUSE, (int) (hover >> 32), (int) hover);
+                    continue;
+                }
+                queue.wrote(channel.write(buffer), System.nanoTime());
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                queue.poll();
+            }
+            if (key.isValid()) {
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+            }
+        } catch (IOException e) {
+            queue.clear();
+        }
+    }
+
+    /**
+     * Reads what the client sent and hands every complete message to the handler
+     */
+    void onReadable() {
+        try {
+            if (channel.read(readBuffer) < 0) {
+                disconnected("end of stream");
+                return;
+            }
+            readBuffer.flip();
+            while (inputCodec.decode(readBuffer, frame)) {
+                ServerMetrics.messagesIn[frame.opcode].increment();
+                heartbeat.heard();
+                if (frame.opcode == Protocol.HEARTBEAT) {
+                    heartbeat.answered();
+                    continue;
+                } else if (frame.opcode == Protocol.PROTOCOL) {
+                    negotiate(frame.a);
+                } else if (!handler.handle(frame)) {
+                    close();
+                    return;
+                }
+            }
+            readBuffer.compact();
+        } catch (IOException e) {
+            disconnected(e.toString());
+            return;
+        }
+
+        if (!readBuffer.hasRemaining()) {
+            disconnected("message too long");
+        }
+    }
+
+    /**
+     * Answers the client's request to switch to binary framing, see Protocol
+     */
+    private void negotiate(int version) {
+        Codec codec = Protocol.codec(version);
+        synchronized (this) {
+            send(Protocol.PROTOCOL, codec == BinaryCodec.INSTANCE ? version : 0, 0);
+            outputCodec = codec;
+        }
+        inputCodec = codec;
+    }
+
+    void disconnected(String reason) {
+        close();
+        handler.disconnected(reason);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        heartbeat.stop();
+        queue.clear();
+        if (key != null) {
+            key.cancel();
+        }
+        try {channel.close();} catch (IOException e) {}
+    }
+}
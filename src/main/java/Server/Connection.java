@@ -0,0 +1,53 @@
+package Server;
+
+import Protocol.SharedFrame;
+
+/**
+ * Outbound side of a client connection. Game logic only ever talks to a player
+ * through this, so it does not care whether the socket is blocking or owned by an event loop,
+ * or whether the client speaks the text or the binary protocol.
+ */
+interface Connection {
+
+    /**
+     * Sends one protocol message to the client, encoded with whatever codec was negotiated.
+     * Safe to call from any thread.
+     * @param opcode one of the Protocol opcodes
+     * @param a ignored unless the opcode carries ints
+     * @param b ignored unless the opcode carries ints
+     * @param text ignored unless the opcode carries text
+     */
+    void send(int opcode, int a, int b, String text);
+
+    default void send(int opcode) {
+        send(opcode, 0, 0, null);
+    }
+
+    default void send(int opcode, int a, int b) {
+        send(opcode, a, b, null);
+    }
+
+    default void send(int opcode, String text) {
+        send(opcode, 0, 0, text);
+    }
+
+    /**
+     * Sends a message encoded once for many connections, in whichever codec this connection has negotiated
+     */
+    void send(SharedFrame frame);
+
+    /**
+     * Sets who gets the messages the client sends from now on
+     */
+    void setHandler(ConnectionHandler handler);
+
+    /**
+     * Whether the socket is still open
+     */
+    boolean isOpen();
+
+    /**
+     * Closes the underlying socket, ignoring any errors
+     */
+    void close();
+}
@@ -0,0 +1,24 @@
+package Server;
+
+import Protocol.Frame;
+
+/**
+ * Whoever is currently interested in what a client sends, the lobby while the client
+ * waits for an opponent and then its Game.Player.
+ */
+interface ConnectionHandler {
+
+    /**
+     * Handles one message from the client.
+     * The frame is reused for the next message, so don't hold on to it.
+     * @param frame the decoded message
+     * @return false once the client has quit and the connection should be closed
+     */
+    boolean handle(Frame frame);
+
+    /**
+     * Called once when the connection to the client is lost
+     * @param reason 
+     */
+    void disconnected(String reason);
+}
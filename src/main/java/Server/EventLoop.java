@@ -0,0 +1,91 @@
+package Server;
+
+import Logging.Log;
+import java.io.IOException;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A selector thread which owns a share of the client connections.
+ * Other threads hand it work through execute(), everything touching its selection keys runs here.
+ * Keys can still be cancelled from elsewhere, closing a channel cancels its key on whichever thread
+ * closes it, so a key is only ever as good as the moment it was checked.
+ */
+class EventLoop implements Runnable {
+    private static final Log log = Log.get(EventLoop.class);
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    EventLoop() throws IOException {
+        selector = Selector.open();
+    }
+
+    /**
+     * Queues a task to run on the loop thread and wakes the selector up
+     */
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    /**
+     * Registers a connection with this loop, reads start being delivered to its player once registered
+     */
+    void register(ChannelConnection connection) {
+        execute(() -> {
+            try {
+                connection.registered(connection.channel().register(selector, SelectionKey.OP_READ, connection));
+            } catch (IOException e) {
+                log.warn("Could not register connection: {}", e);
+                connection.close();
+            }
+        });
+    }
+
+    public void run() {
+        while (true) {
+            try {
+                selector.select();
+            } catch (IOException e) {
+                log.error("Selector failed: {}", e);
+                return;
+            }
+
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // one connection's bug shouldn't take every other one on the loop with it
+                    log.error("Loop task failed: {}", e);
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                ChannelConnection connection = (ChannelConnection) key.attachment();
+                try {
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isWritable()) {
+                        connection.onWritable();
+                    }
+                    if (key.isValid() && key.isReadable()) {
+                        connection.onReadable();
+                    }
+                } catch (CancelledKeyException e) {
+                    // closed from another thread after the check, whoever closed it tells the handler
+                } catch (RuntimeException e) {
+                    log.error("Connection failed: {}", e);
+                    // its handler hears about it from a task, guarded like any other
+                    execute(() -> connection.disconnected(e.toString()));
+                }
+            }
+        }
+    }
+}
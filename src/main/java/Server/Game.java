@@ -0,0 +1,714 @@
+package Server;
+
+import Logging.Log;
+import Protocol.*;
+import java.io.*;
+import java.security.SecureRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.Consumer;
+
+/**
+ * Class which represents the two player connect 4 game.
+ *
+ * Everything that changes the game goes through run(). By default that takes the game's monitor,
+ * with --game-shards the game is pinned to a GameShards thread and run() queues the change there,
+ * so only that thread ever touches the game. Either way the methods below assume they are called
+ * from inside run() and take no lock of their own.
+ */
+class Game {
+    private static final Log log = Log.get(Game.class);
+    private static final char[] MARKS = {'P', 'Y'};
+    private static final SecureRandom random = new SecureRandom();
+    private static final AtomicLong nextId = new AtomicLong(1);
+    // a connection swapped out by RESUME, anything it still says doesn't matter
+    private static final ConnectionHandler REPLACED = new ConnectionHandler() {
+        @Override
+        public boolean handle(Frame frame) {
+            return false;
+        }
+
+        @Override
+        public void disconnected(String reason) {
+        }
+    };
+    private final Board board;
+    // the size of the board and how many in a row win, negotiated in the lobby
+    final Variant variant;
+    private final HoverCoalescer hover;
+    private final MoveJournal journal;
+    final long id;
+    // each player's session token, which gets them back into the game after losing the connection
+    final long[] keys;
+    // the humans in the game by seat, the computer isn't here
+    private final Player[] players = new Player[2];
+    Participant currentPlayer;
+    private boolean over = false;
+    // how the game ended, one of ServerMetrics.WIN, TIE or DISCONNECT
+    private int outcome = -1;
+    // made on the first WATCH, games nobody watches never publish anything
+    private Broadcast broadcast;
+    // told once when the game ends
+    Runnable whenOver;
+    // starts the next game once every human has asked for a rematch
+    Consumer<Game> rematch;
+    // how long a player who lost their connection has to RESUME before the game ends, 0 ends it straight away
+    long resumeGraceMillis = 0;
+    // the shard thread that owns the game, null to use the game's monitor instead
+    Executor shard;
+    // the blitz clocks, null for an untimed game
+    private TurnClock clock;
+    // the seat whose clock ran out, -1 unless that's how the game ended
+    private int flagged = -1;
+
+    Game(HoverCoalescer hover, Variant variant) {
+        this.hover = hover;
+        this.variant = variant;
+        board = Board.of(variant);
+        journal = null;
+        id = nextId.getAndIncrement();
+        keys = new long[]{random.nextLong(), random.nextLong()};
+        ServerMetrics.gamesStarted.increment();
+    }
+
+    /**
+     * A new game written to the journal, every player gets a key to rejoin it with
+     * @param computer the computer's mark, 0 if both players are human
+     */
+    Game(HoverCoalescer hover, MoveJournal journal, char computer, Variant variant) throws IOException {
+        this.hover = hover;
+        this.journal = journal;
+        this.variant = variant;
+        board = Board.of(variant);
+        keys = new long[]{random.nextLong(), random.nextLong()};
+        id = nextId.getAndIncrement();
+        journal.startGame(id, keys[0], keys[1], computer, variant);
+        ServerMetrics.gamesStarted.increment();
+    }
+
+    /**
+     * A game read back from the journal after a restart, on the board its moves were played again on.
+     * Nobody's turn is set until both sides are back.
+     */
+    Game(HoverCoalescer hover, MoveJournal journal, MoveJournal.Unfinished saved) {
+        this.hover = hover;
+        this.journal = journal;
+        id = saved.id;
+        keys = saved.keys;
+        variant = saved.variant;
+        board = saved.board;
+    }
+
+    /**
+     * Makes sure new games get ids above every id already used, before any game is started
+     */
+    static void reserveIds(long next) {
+        nextId.accumulateAndGet(next, Math::max);
+    }
+    
+    /**
+     * Which of the board's two players a mark plays as
+     */
+    static int indexOf(char mark) {
+        return mark == MARKS[0] ? 0 : 1;
+    }
+
+    /**
+     * Runs a change to the game. On a shard it is queued for the shard's thread and this returns
+     * straight away, otherwise it runs here holding the game's monitor.
+     */
+    void run(Runnable task) {
+        if (shard != null) {
+            shard.execute(task);
+        } else {
+            synchronized (this) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Plays the game on blitz clocks, call before it starts
+     */
+    void timed(long baseMillis, long incrementMillis) {
+        clock = new TurnClock(baseMillis, incrementMillis, seat -> run(() -> flagFell(seat)));
+    }
+
+    /**
+     * Starts the clock of whoever moves first, call from inside run() once both sides are ready
+     */
+    void startClock() {
+        if (clock != null && currentPlayer != null) {
+            clock.start(indexOf(currentPlayer.mark()));
+        }
+    }
+
+    /**
+     * A clock ran out. Unless a move got in first, the side to move loses as if the other side had won
+     */
+    private void flagFell(int seat) {
+        if (over || clock == null || !clock.flagged(seat)) {
+            return;
+        }
+        flagged = seat;
+        finished(ServerMetrics.WIN);
+        ServerMetrics.flagFalls.increment();
+        log.info("Game {}: {} ran out of time", id, MARKS[seat]);
+        Participant loser = currentPlayer;
+        loser.outOfTime(true);
+        if (loser.opponent() != null) {
+            loser.opponent().outOfTime(false);
+        }
+    }
+
+    /**
+     * Checks if anyone has won the game after each player movement.
+     * The board works this out when the piece is dropped, so this is just a lookup.
+     * @return boolean for whether a player has won
+     */
+    public boolean hasWinner() {
+        return board.hasWinner();
+    }
+
+    /**
+     * Check if the move is being done by the player whose turn it is and if the spot
+     * on the board isn't already taken up.
+     * If legal, notify opponent and update board.
+     */
+    public boolean legalMove(int[] location, Participant player) {
+        long startedAt = System.nanoTime();
+        try {
+            int col = location[1];
+
+            if (!over && player == currentPlayer && board.canPlay(col)) {
+                int lowestRow = board.play(col, indexOf(currentPlayer.mark()));
+                journal(col);
+                if (broadcast != null) {
+                    broadcast.publish(Protocol.PLAYED, lowestRow, col, null);
+                }
+                if (board.hasWinner()) {
+                    finished(ServerMetrics.WIN);
+                } else if (board.isFull()) {
+                    finished(ServerMetrics.TIE);
+                }
+                currentPlayer = currentPlayer.opponent();
+                if (clock != null && !over) {
+                    clock.moved();
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Board after move:{}", boardString());
+                    log.debug("Setting other player moved: {} {}", lowestRow, col);
+                }
+                currentPlayer.otherPlayerMoved(new int[]{lowestRow, col});
+                if (clock != null && !over && currentPlayer instanceof Player) {
+                    ((Player) currentPlayer).send(Protocol.MESSAGE,
+                        "Your move, " + clock.secondsLeft(indexOf(currentPlayer.mark())) + " s left");
+                }
+                return true;
+            }
+            return false;
+        } finally {
+            ServerMetrics.monitorHold.record(System.nanoTime() - startedAt);
+        }
+    }
+
+    /**
+     * Counts the game's outcome, only the first call for a game counts
+     */
+    void finished(int outcome) {
+        if (!over) {
+            over = true;
+            this.outcome = outcome;
+            if (clock != null) {
+                clock.stop();
+            }
+            ServerMetrics.gamesFinished[outcome].increment();
+            if (journal != null) {
+                try {
+                    journal.endGame(id, outcome);
+                } catch (IOException e) {
+                    log.error("Couldn't journal the end of game {}: {}", id, e);
+                }
+            }
+            if (broadcast != null) {
+                broadcast.publish(Protocol.MESSAGE, 0, 0, result(outcome));
+                broadcast.publish(Protocol.DISCONNECT, 0, 0, "The game is over.");
+            }
+            if (whenOver != null) {
+                whenOver.run();
+            }
+        }
+    }
+
+    /**
+     * How the game ended, for spectators
+     */
+    private String result(int outcome) {
+        if (flagged >= 0) {
+            return (MARKS[flagged] == 'P' ? "Pink" : "Yellow") + " ran out of time, "
+                + (MARKS[flagged] == 'P' ? "Yellow" : "Pink") + " wins!";
+        }
+        if (outcome == ServerMetrics.WIN) {
+            // the winner made the last move
+            return MARKS[(board.moves() - 1) % 2] == 'P' ? "Pink wins!" : "Yellow wins!";
+        }
+        return outcome == ServerMetrics.TIE ? "It's a tie!" : "A player left the game.";
+    }
+
+    /**
+     * The human in a seat (0 for P, 1 for Y), null if it's the computer's
+     */
+    Player player(int seat) {
+        return players[seat];
+    }
+
+    /**
+     * Puts a player who lost their connection back in the game on a new one
+     * @param key the player's session token
+     * @param received how many replayable messages the client got, or -1 to send it the whole board
+     * @return false if the key isn't one of this game's or the player already left for good
+     */
+    boolean resume(Connection connection, long key, long received) {
+        int seat = key == keys[0] ? 0 : key == keys[1] ? 1 : -1;
+        if (over || seat < 0 || players[seat] == null || players[seat].left.get()) {
+            return false;
+        }
+        players[seat].reattach(connection, received);
+        return true;
+    }
+
+    /**
+     * Lets a connection watch the game from the current position on
+     * @return false if the game is already over
+     */
+    boolean watch(Connection connection) {
+        if (over) {
+            return false;
+        }
+        if (broadcast == null) {
+            // every move and the result, with room for the DISCONNECT after it
+            broadcast = new Broadcast(variant.squares() + 2);
+        }
+        broadcast.watch(connection, variant, boardCells());
+        log.info("Spectator joined game {}, {} watching", id, broadcast.watching());
+        return true;
+    }
+
+    boolean isOver() {
+        return over;
+    }
+
+    private void journal(int col) {
+        if (journal != null) {
+            try {
+                journal.move(id, board.moves(), col);
+            } catch (IOException e) {
+                log.error("Couldn't journal a move of game {}: {}", id, e);
+            }
+        }
+    }
+
+    /**
+     * Whose turn it is going by the number of pieces on the board, 'P' always goes first
+     */
+    char markToMove() {
+        return MARKS[board.moves() % 2];
+    }
+
+    /**
+     * The board as sent in a BOARD message, rows times columns characters from the top row down
+     */
+    String boardCells() {
+        StringBuilder out = new StringBuilder(variant.squares());
+        for (int i = 0; i < variant.rows; i++) {
+            for (int j = 0; j < variant.cols; j++) {
+                int owner = board.cellAt(i, j);
+                out.append(owner != -1 ? MARKS[owner] : '_');
+            }
+        }
+        return out.toString();
+    }
+    
+    /**
+     * Used for debugging, shows the state of the internal board on the server.
+     * Only build it when debug logging is on.
+     */
+    private String boardString(){
+        StringBuilder out = new StringBuilder();
+        for(int i = 0; i < variant.rows; i++){
+            out.append(System.lineSeparator());
+            for(int j = 0; j < variant.cols; j++){
+                int owner = board.cellAt(i, j);
+                out.append(owner != -1 ? MARKS[owner] : '_').append(' ');
+            }
+        }
+        return out.toString();
+    }
+    
+    /**
+     * If the board has no more empty squares this returns true, else false
+     */
+    public boolean boardFilledUp() {
+        return board.isFull();
+    }
+
+    /**
+     * A copy of the board for the computer to think about without holding up the game.
+     * The computer only plays the classic variant, which is always on a BitBoard.
+     */
+    public BitBoard snapshot() {
+        return ((BitBoard) board).copy();
+    }
+
+    /**
+     * Class representing a player. Its connection calls handle() for every line the client sends,
+     * from the client's own (platform or virtual) thread or from an event loop depending on the server mode.
+     */
+    class Player implements Participant, ConnectionHandler {
+        // replaced when the player resumes on a new connection
+        volatile Connection connection;
+        char mark;
+        // read by the hover thread too
+        volatile Participant opponent;
+        // latest cursor position waiting for the next hover tick, see HoverCoalescer
+        final AtomicLong latestHover = new AtomicLong(-1);
+        final AtomicBoolean hoverQueued = new AtomicBoolean();
+        int lastHoverColumn = -1;
+        private final AtomicBoolean left = new AtomicBoolean();
+        // what the client was sent, for replaying after it resumes. Locked while sending so a resume
+        // can't slip in between a message being recorded and it going out on the old connection
+        private final Outbox outbox = new Outbox();
+        // set while the connection is lost and the player may still come back
+        private TimingWheel.Timeout expiry;
+        // asked to play the same opponent again
+        private boolean wantsRematch = false;
+
+        /**
+         * Greets the client on its connection, offering to switch to the binary protocol
+         */
+        public Player(Connection connection, char mark) {
+            this.connection = connection;
+            this.mark = mark;
+            players[indexOf(mark)] = this;
+            ServerMetrics.activePlayers.increment();
+            greet();
+        }
+
+        private void greet() {
+            connection.send(Protocol.WELCOME, mark, Protocol.BINARY_VERSION);
+            connection.send(Protocol.GAME, id + " " + keys[indexOf(mark)]);
+            connection.send(Protocol.VARIANT, variant.toString());
+        }
+
+        /**
+         * Sends a message the client would want replayed if it misses it, see Protocol.replayable
+         */
+        void send(int opcode, int a, int b, String text) {
+            synchronized (outbox) {
+                outbox.record(opcode, a, b, text);
+                connection.send(opcode, a, b, text);
+            }
+        }
+
+        void send(int opcode) {
+            send(opcode, 0, 0, null);
+        }
+
+        void send(int opcode, String text) {
+            send(opcode, 0, 0, text);
+        }
+
+        /**
+         * The game this player belongs to
+         */
+        Game game() {
+            return Game.this;
+        }
+
+        @Override
+        public char mark() {
+            return mark;
+        }
+
+        @Override
+        public Participant opponent() {
+            return opponent;
+        }
+
+        /**
+         * Sets who the players opponent is
+         */
+        @Override
+        public void setOpponent(Participant opponent) {
+            this.opponent = opponent;
+        }
+
+        /**
+         * When we are told the other player moved, we tell the opponent player where
+         * Also tell if anyone won after this move
+         */
+        @Override
+        public void otherPlayerMoved(int[] location) {
+            log.debug("Telling Client that The other player moved to {} {}", location[0], location[1]);
+            send(Protocol.OPPONENT_MOVED, location[0], location[1], null);
+            if (hasWinner()) {
+                send(Protocol.DEFEAT);
+            } else if (boardFilledUp()) {
+                send(Protocol.TIE);
+            }
+        }
+        
+        /**
+         * Tells the opponent where this player's mouse is
+         * @param x
+         * @param y 
+         */
+        public void sendOpponentMousePosition(int x, int y) {
+            // Send the opponent's mouse position to the other player
+            if (opponent != null) {
+                opponent.opponentMouseMoved(x, y);
+            }
+        }
+
+        @Override
+        public void opponentMouseMoved(int x, int y) {
+            connection.send(Protocol.OPPONENT_MOUSE, x, y);
+        }
+
+        @Override
+        public void opponentDisconnected() {
+            send(Protocol.DISCONNECT, isOver() && outcome != ServerMetrics.DISCONNECT
+                ? "Your opponent left, no rematch this time." : "Your opponent disconnected.");
+        }
+
+        @Override
+        public void outOfTime(boolean own) {
+            send(Protocol.MESSAGE, own ? "You ran out of time" : "Your opponent ran out of time");
+            send(own ? Protocol.DEFEAT : Protocol.VICTORY);
+        }
+
+        @Override
+        public void opponentAway() {
+            send(Protocol.MESSAGE, "Your opponent lost their connection, waiting for them to come back");
+        }
+
+        @Override
+        public void opponentBack() {
+            send(Protocol.MESSAGE, currentPlayer == this ? "Your opponent is back. Your move" : "Your opponent is back");
+        }
+
+        /**
+         * Lets the client know both players are connected and the game has started
+         */
+        @Override
+        public void ready() {
+            send(Protocol.MESSAGE, clock == null ? "All Players Ready for Battle"
+                : "All Players Ready for Battle, " + clock.describe());
+
+            if (mark == 'P') {
+                send(Protocol.MESSAGE, "Your move");
+            }
+        }
+
+        /**
+         * Handles one command from the client
+         * @param command the message the client sent
+         * @return false once the client has quit
+         */
+        @Override
+        public boolean handle(Frame command) {
+            switch (command.opcode) {
+                case Protocol.MOVE:
+                    int coords[] = {command.a, command.b};
+                    long readAt = System.nanoTime();
+                   
+                    // our client hears its move went through in the same change to the game,
+                    // otherwise a quick computer opponent could answer before VALID_MOVE is sent
+                    run(() -> {
+                        if (legalMove(coords, this)) {
+                            send(Protocol.VALID_MOVE);
+                            if (hasWinner()) {
+                                send(Protocol.VICTORY);
+                            } else if (boardFilledUp()) {
+                                send(Protocol.TIE);
+                            }
+                        } else {
+                            send(Protocol.MESSAGE, "Wait Your Turn!");
+                        }
+                        ServerMetrics.moveHandling.record(System.nanoTime() - readAt);
+                    });
+                    break;
+                    
+                case Protocol.QUIT:
+                    run(() -> {
+                        leave();
+                        if (opponent != null) {
+                            opponent.opponentDisconnected();
+                        }
+                    });
+                    return false;
+
+                case Protocol.REMATCH:
+                    run(this::askRematch);
+                    break;
+                    
+                case Protocol.MOUSE_MOVE:
+                    log.trace("coords of opponent mouse are {}:{}", command.a, command.b);
+
+                    // Send the mouse position to the other player on the next hover tick
+                    hover.update(this, command.a, command.b);
+                    break;
+
+                default:
+                    break;
+            }
+            return true;
+        }
+
+        /**
+         * Called when the connection to the client is lost
+         * @param reason 
+         */
+        @Override
+        public void disconnected(String reason) {
+            run(() -> lost(reason));
+        }
+
+        private void lost(String reason) {
+            if (expiry != null) {
+                // already waiting for this player to come back
+                return;
+            }
+            // a short network blip shouldn't end the game, hold the seat for a RESUME
+            if (!over && resumeGraceMillis > 0 && !left.get()) {
+                log.info("Player lost the connection to game {}: {}, waiting for a resume", id, reason);
+                expiry = TimingWheel.shared.schedule(() -> run(this::expire), resumeGraceMillis, TimeUnit.MILLISECONDS);
+                connection.close();
+                if (opponent != null) {
+                    opponent.opponentAway();
+                }
+                return;
+            }
+            log.info("Player disconnected: {}", reason);
+            leave();
+            
+            //send message to opponent that player disconnted
+            if (opponent != null) {
+                opponent.opponentDisconnected();
+            }
+            connection.close();
+        }
+
+        /**
+         * The grace period ran out without a RESUME
+         */
+        private void expire() {
+            if (expiry == null) {
+                return;
+            }
+            expiry = null;
+            log.info("Player didn't come back to game {} in time", id);
+            leave();
+            if (opponent != null) {
+                opponent.opponentDisconnected();
+            }
+        }
+
+        /**
+         * Moves the player over to the connection it resumed on, call from inside run().
+         * The client gets whatever it missed if the outbox still has it, otherwise the whole board.
+         */
+        void reattach(Connection next, long received) {
+            if (expiry != null) {
+                expiry.cancel();
+                expiry = null;
+            }
+            Connection old = connection;
+            synchronized (outbox) {
+                old.setHandler(REPLACED);
+                old.close();
+                connection = next;
+                next.setHandler(this);
+                greet();
+                if (outbox.canReplayFrom(received)) {
+                    next.send(Protocol.RESUMED, Long.toString(received));
+                    outbox.replayFrom(received, next);
+                    log.info("Player resumed game {}, replayed {} messages", id, outbox.sent() - received);
+                } else {
+                    resumed();
+                    log.info("Player resumed game {} with the whole board", id);
+                }
+            }
+            ServerMetrics.resumes.increment();
+            if (opponent != null) {
+                opponent.opponentBack();
+            }
+        }
+
+        /**
+         * Catches the client up with the whole board after it rejoined the game
+         */
+        void resumed() {
+            synchronized (outbox) {
+                // the client counts replayable messages on from here
+                connection.send(Protocol.RESUMED, Long.toString(outbox.sent()));
+                send(Protocol.BOARD, boardCells());
+                if (opponent == null) {
+                    send(Protocol.MESSAGE, "Waiting for your opponent to reconnect");
+                } else if (currentPlayer == this) {
+                    send(Protocol.MESSAGE, "Your move");
+                } else {
+                    send(Protocol.MESSAGE, "Opponent's Turn");
+                }
+            }
+        }
+
+        /**
+         * The player wants to play the same opponent again. Once the other side has asked too the lobby
+         * starts the next game on the same connections, the computer always agrees.
+         */
+        private void askRematch() {
+            if (!over || outcome == ServerMetrics.DISCONNECT || wantsRematch || left.get()) {
+                return;
+            }
+            wantsRematch = true;
+            if (opponent instanceof Player) {
+                Player other = (Player) opponent;
+                if (other.left.get()) {
+                    send(Protocol.DISCONNECT, "Your opponent left, no rematch this time.");
+                    return;
+                }
+                if (!other.wantsRematch) {
+                    other.send(Protocol.MESSAGE, "Your opponent wants a rematch");
+                    return;
+                }
+            }
+            rematch.accept(Game.this);
+        }
+
+        /**
+         * Gives up this player's connection for the next game, the player is done with this one
+         */
+        Connection handOver() {
+            if (left.compareAndSet(false, true)) {
+                ServerMetrics.activePlayers.decrement();
+            }
+            return connection;
+        }
+
+        /**
+         * The player is gone for good, a game that wasn't over yet ends by disconnect
+         */
+        private void leave() {
+            if (left.compareAndSet(false, true)) {
+                ServerMetrics.activePlayers.decrement();
+                finished(ServerMetrics.DISCONNECT);
+            }
+        }
+
+        @Override
+        public String toString(){
+            return Character.toString(this.mark);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package Server;
+
+import Logging.Log;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Threads that own games. Every game is pinned to one shard for its whole life and every change
+ * to it (moves, disconnects, resumes, spectators joining) runs on that shard's thread, one at a time.
+ * A game's state only ever has that one writer, so it needs no lock and nothing reads it half changed.
+ * Shards share nothing, so adding shards up to the number of cores adds throughput.
+ *
+ * Each shard's inbox is a lock free queue. The thread parks when the inbox is empty and only
+ * a producer that finds it parked pays for the unpark.
+ */
+class GameShards {
+    private static final Log log = Log.get(GameShards.class);
+
+    private final Shard[] shards;
+
+    GameShards(int count) {
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+            Thread thread = new Thread(shards[i], "game-shard-" + i);
+            thread.setDaemon(true);
+            shards[i].thread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * The shard a game runs on. Ids are handed out in order, so consecutive games land on different shards.
+     */
+    Executor pin(long gameId) {
+        return shards[(int) Math.floorMod(gameId, (long) shards.length)];
+    }
+
+    int size() {
+        return shards.length;
+    }
+
+    /**
+     * One thread and its inbox
+     */
+    private static class Shard implements Executor, Runnable {
+        private final ConcurrentLinkedQueue<Runnable> inbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean parked = new AtomicBoolean();
+        private Thread thread;
+
+        /**
+         * Queues a task for the shard's thread, from any thread
+         */
+        @Override
+        public void execute(Runnable task) {
+            inbox.add(task);
+            if (parked.get() && parked.compareAndSet(true, false)) {
+                LockSupport.unpark(thread);
+            }
+        }
+
+        public void run() {
+            while (true) {
+                Runnable task;
+                while ((task = inbox.poll()) != null) {
+                    try {
+                        task.run();
+                    } catch (RuntimeException e) {
+                        // one game's bug shouldn't stop every other game on the shard
+                        log.error("Game task failed: {}", e);
+                    }
+                }
+                parked.set(true);
+                // a task added after the last poll either shows up here or unparks us
+                if (inbox.isEmpty()) {
+                    LockSupport.park(this);
+                }
+                parked.set(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package Server;
+
+import Protocol.Variant;
+
+/**
+ * A board of any size up to Variant.MAX_SIZE square, for the variants a BitBoard can't hold.
+ *
+ * Squares are one byte each, 0 for empty and 1 or 2 for the players, row 0 at the top.
+ * A win can only be made by the piece just played, so the check walks out from it along the
+ * four lines through it (down, across and both diagonals) and stops at the first square that
+ * isn't the mover's. Each move looks at no more than 4 * 2 * (connect - 1) squares whatever
+ * the size of the board.
+ */
+class GridBoard implements Board {
+    // row and column steps of the four lines, each walked both ways
+    private static final int[][] LINES = {{1, 0}, {0, 1}, {1, 1}, {1, -1}};
+
+    private final int rows;
+    private final int cols;
+    private final int connect;
+    private final byte[] cells;
+    // pieces in each column
+    private final int[] heights;
+    private int moves;
+    private boolean lastMoveWon;
+
+    GridBoard(Variant variant) {
+        rows = variant.rows;
+        cols = variant.cols;
+        connect = variant.connect;
+        cells = new byte[rows * cols];
+        heights = new int[cols];
+    }
+
+    @Override
+    public int rows() {
+        return rows;
+    }
+
+    @Override
+    public int cols() {
+        return cols;
+    }
+
+    @Override
+    public boolean canPlay(int col) {
+        return col >= 0 && col < cols && heights[col] < rows;
+    }
+
+    @Override
+    public int play(int col, int player) {
+        int row = rows - 1 - heights[col]++;
+        cells[row * cols + col] = (byte) (player + 1);
+        moves++;
+        lastMoveWon = isAlignment(row, col, (byte) (player + 1));
+        return row;
+    }
+
+    @Override
+    public boolean hasWinner() {
+        return lastMoveWon;
+    }
+
+    @Override
+    public boolean isFull() {
+        return moves == cells.length;
+    }
+
+    @Override
+    public int moves() {
+        return moves;
+    }
+
+    @Override
+    public int cellAt(int row, int col) {
+        return cells[row * cols + col] - 1;
+    }
+
+    private boolean isAlignment(int row, int col, byte piece) {
+        for (int[] line : LINES) {
+            int run = 1 + count(row, col, line[0], line[1], piece) + count(row, col, -line[0], -line[1], piece);
+            if (run >= connect) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How many of the mover's pieces follow on from the square in one direction, looking no
+     * further than a line could need
+     */
+    private int count(int row, int col, int dRow, int dCol, byte piece) {
+        int found = 0;
+        int r = row + dRow;
+        int c = col + dCol;
+        while (found < connect - 1 && r >= 0 && r < rows && c >= 0 && c < cols && cells[r * cols + c] == piece) {
+            found++;
+            r += dRow;
+            c += dCol;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,87 @@
+package Server;
+
+import Protocol.Protocol;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches one connection from the shared TimingWheel. Whenever the client has been quiet for the
+ * heartbeat interval it is sent HEARTBEAT, which clients answer with HEARTBEAT, and once it has been
+ * quiet for the idle timeout it is reaped. A client that stops answering has gone away without
+ * closing its end or is stuck, either way holding its seat and socket forever helps nobody.
+ * Being reaped is a lost connection like any other, the player can still resume.
+ *
+ * Only clients that have answered a HEARTBEAT are ever reaped. Older clients ignore it, and can't
+ * resume either, so one left quiet while its opponent thinks keeps its seat.
+ */
+class Heartbeat implements Runnable {
+    private final Connection connection;
+    // cuts the connection off and tells its handler why
+    private final Consumer<String> reap;
+    private final long intervalNanos;
+    private final long idleNanos;
+    private volatile long heardAt = System.nanoTime();
+    // the client has answered a HEARTBEAT, so going quiet means something
+    private volatile boolean answers = false;
+    private volatile boolean stopped = false;
+    private volatile TimingWheel.Timeout next;
+
+    Heartbeat(Connection connection, ServerConfig config, Consumer<String> reap) {
+        this.connection = connection;
+        this.reap = reap;
+        intervalNanos = TimeUnit.SECONDS.toNanos(config.heartbeatSeconds);
+        idleNanos = TimeUnit.SECONDS.toNanos(config.idleTimeoutSeconds);
+    }
+
+    /**
+     * Starts watching, unless heartbeats are off
+     */
+    void start() {
+        if (intervalNanos > 0) {
+            next = TimingWheel.shared.schedule(this, intervalNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Something came in from the client
+     */
+    void heard() {
+        heardAt = System.nanoTime();
+    }
+
+    /**
+     * The client answered a HEARTBEAT, from now on it can be reaped
+     */
+    void answered() {
+        answers = true;
+    }
+
+    public void run() {
+        if (stopped) {
+            return;
+        }
+        long quiet = System.nanoTime() - heardAt;
+        if (answers && idleNanos > 0 && quiet >= idleNanos) {
+            ServerMetrics.idleReaped.increment();
+            reap.accept("nothing heard for " + TimeUnit.NANOSECONDS.toSeconds(quiet) + " s");
+            return;
+        }
+        if (quiet >= intervalNanos) {
+            connection.send(Protocol.HEARTBEAT);
+        }
+        // look again an interval from now, or when the client would have been quiet for a whole interval
+        long wait = quiet >= intervalNanos ? intervalNanos : intervalNanos - quiet;
+        next = TimingWheel.shared.schedule(this, wait, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The connection is closed, nothing more to watch
+     */
+    void stop() {
+        stopped = true;
+        TimingWheel.Timeout pending = next;
+        if (pending != null) {
+            pending.cancel();
+        }
+    }
+}
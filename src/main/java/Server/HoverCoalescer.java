@@ -0,0 +1,103 @@
+package Server;
+
+import Protocol.Protocol;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Forwards opponent cursor positions at a fixed tick instead of once per mouse event.
+ * Only the latest position of each player is kept between ticks, and it is only sent on
+ * if the cursor moved to a different column. Positions are fractions of the board's width
+ * (see Protocol.HOVER_SCALE), so the column doesn't depend on how big the client draws it.
+ * Moves never go through here, so hover traffic can't hold them up.
+ */
+class HoverCoalescer implements Runnable {
+    private static final long NONE = -1;
+
+    private final long tickNanos;
+    private final ConcurrentLinkedQueue<Game.Player> dirty = new ConcurrentLinkedQueue<>();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder forwarded = new LongAdder();
+
+    HoverCoalescer(ServerConfig config) {
+        tickNanos = config.hoverHz > 0 ? TimeUnit.SECONDS.toNanos(1) / config.hoverHz : 0;
+    }
+
+    /**
+     * Starts the tick thread, unless the tick rate is 0 in which case every update goes straight through
+     */
+    void start() {
+        if (tickNanos == 0) {
+            return;
+        }
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hover-tick");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleAtFixedRate(this, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records where a player's cursor is, it is sent to their opponent on the next tick
+     */
+    void update(Game.Player player, int x, int y) {
+        received.increment();
+        if (tickNanos == 0) {
+            forward(player, x, y);
+            return;
+        }
+        player.latestHover.set(((long) x << 32) | (y & 0xFFFFFFFFL));
+        if (player.hoverQueued.compareAndSet(false, true)) {
+            dirty.add(player);
+        }
+    }
+
+    /**
+     * Flushes the latest position of every player whose cursor moved since the last tick
+     */
+    public void run() {
+        Game.Player player;
+        while ((player = dirty.poll()) != null) {
+            // clear the flag first so an update racing this tick queues the player again
+            player.hoverQueued.set(false);
+            long latest = player.latestHover.getAndSet(NONE);
+            if (latest == NONE) {
+                continue;
+            }
+            int x = (int) (latest >> 32);
+            int y = (int) latest;
+            int cols = player.game().variant.cols;
+            int column = columnOf(x, cols);
+            if (column == player.lastHoverColumn) {
+                continue;
+            }
+            player.lastHoverColumn = column;
+            // snap to the middle of the column, that's all the opponent needs to see
+            forward(player, (2 * column + 1) * Protocol.HOVER_SCALE / (2 * cols), y);
+        }
+    }
+
+    private void forward(Game.Player player, int x, int y) {
+        forwarded.increment();
+        player.sendOpponentMousePosition(x, y);
+    }
+
+    private static int columnOf(int x, int cols) {
+        return Math.max(0, Math.min(cols - 1, x * cols / Protocol.HOVER_SCALE));
+    }
+
+    /**
+     * Number of cursor updates clients have sent
+     */
+    long received() {
+        return received.sum();
+    }
+
+    /**
+     * Number of cursor updates passed on to opponents
+     */
+    long forwarded() {
+        return forwarded.sum();
+    }
+}
@@ -0,0 +1,640 @@
+package Server;
+
+import Logging.Log;
+import Protocol.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Matchmaking. Accepted connections join a concurrent waiting queue and a single
+ * pairing worker forms games from it, so a slow client never holds up anyone else.
+ * Clients that disconnect while waiting are cancelled. Clients nobody is found for
+ * in time play the computer if there is an AIEngine, otherwise they are sent away
+ * once the queue timeout runs out.
+ *
+ * A client can send VARIANT while it waits to play on another board, it is only paired with
+ * someone who asked for the same one. The computer only plays the classic board. Likewise a client
+ * that sends MATCH is only paired with one that sent the same ticket, which is how the router makes
+ * sure the two clients it matched end up in the same game here.
+ *
+ * Games read back from the move journal after a restart wait here for their players to send
+ * RESUME (or REJOIN), until the grace period runs out. Players who only lost their connection
+ * come back through here with RESUME too, into the game that kept their seat.
+ *
+ * Every game in progress is listed by id so that a connection can send WATCH instead of waiting
+ * and spectate it.
+ */
+class Lobby implements Runnable {
+    private static final Log log = Log.get(Lobby.class);
+
+    // how long a new connection has to say it's resuming or watching before it's paired as a player
+    private static final long REJOIN_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final long ANNOUNCE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final LinkedBlockingQueue<Waiter> queue = new LinkedBlockingQueue<>();
+    // how long a waiter for the classic board waits before playing the computer, and everyone else before giving up
+    private final long aiAfterNanos;
+    private final long queueTimeoutNanos;
+    // the board of anyone who doesn't ask for another
+    private final Variant defaultVariant;
+    private final HoverCoalescer hover;
+    private final AIEngine ai;
+    private final MoveJournal journal;
+    // the threads games are pinned to, null if each game locks its own monitor instead
+    private final GameShards shards;
+    private final long graceNanos;
+    private final long resumeGraceMillis;
+    // the blitz clock new games are played on, 0 for none
+    private final long clockMillis;
+    private final long clockIncrementMillis;
+    // journal games waiting for their players to come back, by game id
+    private final ConcurrentHashMap<Long, Restored> restored = new ConcurrentHashMap<>();
+    // games in progress for spectators to find, by game id
+    private final ConcurrentHashMap<Long, Game> games = new ConcurrentHashMap<>();
+    private volatile Game newest;
+
+    // time from connect to being paired, in nanoseconds
+    private final LongAdder pairings = new LongAdder();
+    private final LongAdder pairingNanos = new LongAdder();
+    private final AtomicLong maxPairingNanos = new AtomicLong();
+
+    /**
+     * @param ai the computer opponents, or null to only pair humans
+     * @param journal where new games are recorded and unfinished ones come back from, or null
+     */
+    Lobby(ServerConfig config, HoverCoalescer hover, AIEngine ai, MoveJournal journal) {
+        this.hover = hover;
+        this.ai = ai;
+        this.journal = journal;
+        aiAfterNanos = TimeUnit.SECONDS.toNanos(config.aiAfterSeconds);
+        queueTimeoutNanos = TimeUnit.SECONDS.toNanos(config.queueTimeoutSeconds);
+        defaultVariant = config.variant;
+        shards = config.gameShards > 0 ? new GameShards(config.gameShards) : null;
+        if (shards != null) {
+            log.info("Games run on {} shards", shards.size());
+        }
+        graceNanos = TimeUnit.SECONDS.toNanos(config.rejoinGraceSeconds);
+        resumeGraceMillis = TimeUnit.SECONDS.toMillis(config.resumeGraceSeconds);
+        clockMillis = config.clockMillis;
+        clockIncrementMillis = config.clockIncrementMillis;
+        Game.reserveIds(((long) config.node << Protocol.NODE_SHIFT) + 1);
+        if (journal != null) {
+            Game.reserveIds(journal.nextGameId());
+            for (MoveJournal.Unfinished saved : journal.unfinished()) {
+                restore(saved);
+            }
+        }
+    }
+
+    /**
+     * Starts the pairing worker thread, and the timeout for restored games if there are any
+     */
+    void start() {
+        Thread worker = new Thread(this, "pairing");
+        worker.setDaemon(true);
+        worker.start();
+        if (!restored.isEmpty()) {
+            TimingWheel.shared.schedule(() -> {
+                for (Restored game : restored.values()) {
+                    game.game.run(game::expire);
+                }
+            }, graceNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Puts a connection in the waiting queue. The lobby handles whatever it sends until it is paired.
+     * @param connection
+     * @param connectedAt System.nanoTime() when the connection was accepted
+     */
+    void join(Connection connection, long connectedAt) {
+        Waiter waiter = new Waiter(connection, connectedAt);
+        ServerMetrics.connections.increment();
+        ServerMetrics.waitingPlayers.increment();
+        connection.setHandler(waiter);
+        queue.add(waiter);
+    }
+
+    /**
+     * Number of players currently waiting for an opponent
+     */
+    int waiting() {
+        return queue.size();
+    }
+
+    /**
+     * Number of pairs formed so far
+     */
+    long pairings() {
+        return pairings.sum();
+    }
+
+    /**
+     * Average time from connect to being paired over every pairing so far
+     */
+    double averagePairingMillis() {
+        long count = pairings.sum();
+        return count == 0 ? 0 : pairingNanos.sum() / (count * 1_000_000.0);
+    }
+
+    /**
+     * Longest time anyone has waited from connect to being paired
+     */
+    double maxPairingMillis() {
+        return maxPairingNanos.get() / 1_000_000.0;
+    }
+
+    /**
+     * The pairing worker. A new waiter is left young for a moment, to give anyone coming back to a game,
+     * here to watch or after another board the chance to say so. After that it is held as the oldest live
+     * waiter of its pool (board and ticket) until a second one for the same pool shows up, or until it has
+     * waited too long. The worker never sleeps, it waits on the queue for whichever of those is due first.
+     */
+    public void run() {
+        // in order of arrival, so the first one's window is always over first
+        ArrayDeque<Waiter> young = new ArrayDeque<>();
+        Map<String, Waiter> held = new HashMap<>();
+        while (true) {
+            try {
+                long window = restored.isEmpty() ? ANNOUNCE_WINDOW_NANOS : REJOIN_WINDOW_NANOS;
+                long now = System.nanoTime();
+                while (!young.isEmpty() && young.peek().connectedAt + window - now <= 0) {
+                    offer(held, young.poll());
+                }
+                held.values().removeIf(waiter -> !waiter.isWaiting());
+                // whoever runs out of time first
+                Waiter oldest = null;
+                long left = Long.MAX_VALUE;
+                for (Waiter waiter : held.values()) {
+                    long timeout = timeoutFor(waiter.variant);
+                    if (timeout > 0 && waiter.connectedAt + timeout - now < left) {
+                        oldest = waiter;
+                        left = waiter.connectedAt + timeout - now;
+                    }
+                }
+                long wait = young.isEmpty() ? left : Math.min(left, young.peek().connectedAt + window - now);
+                Waiter next = wait == Long.MAX_VALUE ? queue.take() : queue.poll(Math.max(0, wait), TimeUnit.NANOSECONDS);
+                if (next != null) {
+                    young.add(next);
+                    continue;
+                }
+                if (oldest == null || oldest.connectedAt + timeoutFor(oldest.variant) - System.nanoTime() > 0) {
+                    // a young waiter's window is over, it's offered at the top
+                    continue;
+                }
+                held.remove(oldest.pool);
+                if (ai != null && oldest.variant.isStandard()) {
+                    if (oldest.claim()) {
+                        pairWithComputer(oldest);
+                    }
+                } else if (oldest.expire()) {
+                    log.info("No opponent found in time, sending player away");
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                log.error("Pairing failed: {}", e);
+                held.clear();
+            }
+        }
+    }
+
+    /**
+     * Pairs a waiter whose window is over with the one held for its pool, or holds it if there's none
+     */
+    private void offer(Map<String, Waiter> held, Waiter next) {
+        if (!next.isWaiting()) {
+            return;
+        }
+        // whatever it asked for by now is what it plays
+        next.settle();
+        Waiter first = held.remove(next.pool);
+        if (first == null || !first.claim()) {
+            held.put(next.pool, next);
+            return;
+        }
+        if (!next.claim()) {
+            // first is claimed but its partner left, put it back at the front
+            first.requeue();
+            held.put(first.pool, first);
+            return;
+        }
+        pair(first, next);
+    }
+
+    /**
+     * How long someone waiting for the variant is held before the computer steps in or they're sent away,
+     * 0 if they wait for as long as it takes
+     */
+    private long timeoutFor(Variant variant) {
+        return ai != null && variant.isStandard() ? aiAfterNanos : queueTimeoutNanos;
+    }
+
+    /**
+     * Creates the game for two claimed waiters and hands their connections over to it
+     */
+    private void pair(Waiter first, Waiter second) {
+        long now = System.nanoTime();
+        recordPairing(now - first.connectedAt);
+        recordPairing(now - second.connectedAt);
+
+        Game game = newGame((char) 0, first.variant);
+        game.run(() -> {
+            Game.Player player1 = game.new Player(first.connection, 'P');
+            Game.Player player2 = game.new Player(second.connection, 'Y');
+            player1.setOpponent(player2);
+            player2.setOpponent(player1);
+            game.currentPlayer = player1;
+            first.connection.setHandler(player1);
+            second.connection.setHandler(player2);
+            player1.ready();
+            player2.ready();
+            game.startClock();
+
+            // a disconnect that raced the handover went to the lobby, pass it on
+            if (!first.connection.isOpen()) {
+                player1.disconnected("left while being paired");
+            } else if (!second.connection.isOpen()) {
+                player2.disconnected("left while being paired");
+            }
+        });
+        log.info("Paired players after {} ms (average {} ms, max {} ms)",
+            (now - first.connectedAt) / 1_000_000, Math.round(averagePairingMillis() * 10) / 10.0, Math.round(maxPairingMillis() * 10) / 10.0);
+    }
+
+    /**
+     * Starts a game against the computer for someone nobody else turned up for
+     */
+    private void pairWithComputer(Waiter waiter) {
+        long waited = System.nanoTime() - waiter.connectedAt;
+        recordPairing(waited);
+
+        Game game = newGame('Y', Variant.STANDARD);
+        game.run(() -> {
+            Game.Player human = game.new Player(waiter.connection, 'P');
+            AIPlayer computer = new AIPlayer(game, 'Y', ai);
+            human.setOpponent(computer);
+            computer.setOpponent(human);
+            game.currentPlayer = human;
+            waiter.connection.setHandler(human);
+            human.send(Protocol.MESSAGE, "No one else is around, you're playing the computer");
+            human.ready();
+            computer.ready();
+            game.startClock();
+
+            if (!waiter.connection.isOpen()) {
+                human.disconnected("left while being paired");
+            }
+        });
+        log.info("Paired player with the computer ({}) after {} ms", ai.difficulty, waited / 1_000_000);
+    }
+
+    /**
+     * Starts the next game between the players of one that just ended, on the same connections.
+     * Whoever moved second moves first this time, which swaps the marks since P always moves first.
+     * Called by the last player to ask for it, from inside the old game's run(). The new game is set up
+     * inside its own.
+     */
+    private void rematch(Game last) {
+        Game.Player oldP = last.player(0);
+        Game.Player oldY = last.player(1);
+        // the computer's seat swaps too, it's wherever there's no human
+        char computer = oldP == null ? 'Y' : oldY == null ? 'P' : 0;
+        Game game = newGame(computer, last.variant);
+        Connection forP = oldY != null ? oldY.handOver() : null;
+        Connection forY = oldP != null ? oldP.handOver() : null;
+        game.run(() -> {
+            Participant first = forP != null ? game.new Player(forP, 'P') : new AIPlayer(game, 'P', ai);
+            Participant second = forY != null ? game.new Player(forY, 'Y') : new AIPlayer(game, 'Y', ai);
+            first.setOpponent(second);
+            second.setOpponent(first);
+            game.currentPlayer = first;
+            for (Participant participant : new Participant[]{first, second}) {
+                if (participant instanceof Game.Player) {
+                    Game.Player player = (Game.Player) participant;
+                    player.connection.setHandler(player);
+                }
+            }
+            // second first, so a computer moving first doesn't beat the other player hearing the game started
+            second.ready();
+            first.ready();
+            game.startClock();
+
+            // a disconnect that raced the handover went to the old game, pass it on
+            for (Participant participant : new Participant[]{first, second}) {
+                if (participant instanceof Game.Player && !((Game.Player) participant).connection.isOpen()) {
+                    ((Game.Player) participant).disconnected("left while the rematch started");
+                    break;
+                }
+            }
+        });
+        ServerMetrics.rematches.increment();
+        log.info("Rematch, game {} follows game {}", game.id, last.id);
+    }
+
+    /**
+     * A game recorded in the journal if there is one
+     * @param computer the computer's mark, 0 if both players are human
+     */
+    private Game newGame(char computer, Variant variant) {
+        Game game = null;
+        if (journal != null) {
+            try {
+                game = new Game(hover, journal, computer, variant);
+            } catch (IOException e) {
+                log.error("Couldn't journal a new game, it won't survive a restart: {}", e);
+            }
+        }
+        if (game == null) {
+            game = new Game(hover, variant);
+        }
+        if (clockMillis > 0) {
+            game.timed(clockMillis, clockIncrementMillis);
+        }
+        track(game);
+        return game;
+    }
+
+    /**
+     * Lists a game for spectators until it is over
+     */
+    private void track(Game game) {
+        game.shard = shards != null ? shards.pin(game.id) : null;
+        game.resumeGraceMillis = resumeGraceMillis;
+        games.put(game.id, game);
+        newest = game;
+        game.whenOver = () -> games.remove(game.id);
+        game.rematch = this::rematch;
+    }
+
+    /**
+     * Hands a waiter over to the game it asked to WATCH
+     * @param request the game id, or nothing for the newest game
+     */
+    private void watch(Waiter waiter, String request) {
+        Game game = null;
+        try {
+            String id = request == null ? "" : request.trim();
+            game = id.isEmpty() ? newest : games.get(Long.parseLong(id));
+        } catch (NumberFormatException e) {
+            // treated like an unknown game
+        }
+        if (!waiter.claim()) {
+            return;
+        }
+        Runnable refuse = () -> {
+            waiter.connection.send(Protocol.DISCONNECT, "No such game.");
+            waiter.connection.close();
+        };
+        if (game == null) {
+            refuse.run();
+            return;
+        }
+        Game watched = game;
+        watched.run(() -> {
+            if (!watched.watch(waiter.connection)) {
+                refuse.run();
+            }
+        });
+    }
+
+    /**
+     * Sets a game from the journal up to wait for its players, the computer takes its seat straight away
+     */
+    private void restore(MoveJournal.Unfinished saved) {
+        Restored game = new Restored(new Game(hover, journal, saved));
+        // the last move made it to disk but the end of the game didn't
+        if (game.game.hasWinner() || game.game.boardFilledUp()) {
+            game.game.finished(game.game.hasWinner() ? ServerMetrics.WIN : ServerMetrics.TIE);
+            return;
+        }
+        track(game.game);
+        if (saved.computer != 0 && ai != null) {
+            game.seats[Game.indexOf(saved.computer)] = new AIPlayer(game.game, saved.computer, ai);
+        }
+        restored.put(saved.id, game);
+    }
+
+    /**
+     * Puts a waiter back in the game it asked for with RESUME or REJOIN, a game from the journal
+     * or one still going that held the player's seat
+     * @param request "<game id> <key> <received>", REJOIN has no received and gets the whole board
+     */
+    private void resume(Waiter waiter, String request) {
+        long id = 0;
+        long key = 0;
+        long received = -1;
+        try {
+            String[] parts = request.trim().split(" ");
+            id = Long.parseLong(parts[0]);
+            key = Long.parseLong(parts[1]);
+            if (parts.length > 2) {
+                received = Long.parseLong(parts[2]);
+            }
+        } catch (RuntimeException e) {
+            // malformed, treated like an unknown game
+        }
+        if (!waiter.claim()) {
+            return;
+        }
+        // a game from the journal is listed with the rest, so a player who drops again before the other side
+        // is back resumes it like any other game
+        Restored saved = restored.get(id);
+        Game game = saved != null ? saved.game : games.get(id);
+        Runnable refuse = () -> {
+            waiter.connection.send(Protocol.DISCONNECT, "That game is no longer available.");
+            waiter.connection.close();
+        };
+        if (game == null) {
+            refuse.run();
+            return;
+        }
+        long seatKey = key;
+        long seen = received;
+        game.run(() -> {
+            boolean back = saved != null && saved.rejoin(waiter.connection, seatKey);
+            if (!back && !game.resume(waiter.connection, seatKey, seen)) {
+                refuse.run();
+            }
+        });
+    }
+
+    private void recordPairing(long nanos) {
+        pairings.increment();
+        pairingNanos.add(nanos);
+        maxPairingNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * A connection waiting in the queue. Its state only moves out of WAITING once,
+     * so a disconnect and a pairing can race without both winning.
+     */
+    private class Waiter implements ConnectionHandler {
+        static final int WAITING = 0;
+        static final int PAIRED = 1;
+        static final int GONE = 2;
+
+        final Connection connection;
+        final long connectedAt;
+        final AtomicInteger state = new AtomicInteger(WAITING);
+        // the board asked for with VARIANT and the ticket sent with MATCH, read by the pairing worker
+        // once the announce window is over
+        private volatile Variant requested;
+        private volatile String ticket;
+        // the board it is paired for and who it can be paired with, only the pairing worker touches them
+        Variant variant = defaultVariant;
+        String pool = defaultVariant.toString();
+
+        Waiter(Connection connection, long connectedAt) {
+            this.connection = connection;
+            this.connectedAt = connectedAt;
+        }
+
+        /**
+         * Fixes the board the waiter is paired for and who with
+         */
+        void settle() {
+            if (requested != null) {
+                variant = requested;
+            }
+            pool = ticket == null ? variant.toString() : variant + " " + ticket;
+        }
+
+        /**
+         * Takes a VARIANT request, one the server can't play leaves the waiter on the default board
+         */
+        private void request(String text) {
+            try {
+                requested = Variant.parse(text);
+            } catch (IllegalArgumentException e) {
+                connection.send(Protocol.MESSAGE, "Can't play " + text + ", playing " + defaultVariant.describe() + " instead");
+            }
+        }
+
+        boolean isWaiting() {
+            return state.get() == WAITING && connection.isOpen();
+        }
+
+        boolean claim() {
+            return leave(PAIRED);
+        }
+
+        /**
+         * Puts a claimed waiter back to waiting
+         */
+        void requeue() {
+            state.set(WAITING);
+            ServerMetrics.waitingPlayers.increment();
+        }
+
+        private boolean leave(int next) {
+            if (state.compareAndSet(WAITING, next)) {
+                ServerMetrics.waitingPlayers.decrement();
+                return true;
+            }
+            return false;
+        }
+
+        boolean expire() {
+            if (!leave(GONE)) {
+                return false;
+            }
+            connection.send(Protocol.DISCONNECT, "No opponent found, try again later.");
+            connection.close();
+            return true;
+        }
+
+        @Override
+        public boolean handle(Frame frame) {
+            // nothing is expected before the game starts other than giving up, or which board and who to play
+            if (frame.opcode == Protocol.QUIT) {
+                leave(GONE);
+                return false;
+            }
+            if (frame.opcode == Protocol.RESUME || frame.opcode == Protocol.REJOIN) {
+                resume(this, frame.text);
+            } else if (frame.opcode == Protocol.WATCH) {
+                watch(this, frame.text);
+            } else if (frame.opcode == Protocol.VARIANT) {
+                request(frame.text);
+            } else if (frame.opcode == Protocol.MATCH && frame.text != null && !frame.text.trim().isEmpty()) {
+                ticket = frame.text.trim();
+            }
+            return true;
+        }
+
+        @Override
+        public void disconnected(String reason) {
+            if (leave(GONE)) {
+                log.info("Player left the lobby: {}", reason);
+            }
+            connection.close();
+        }
+    }
+
+    /**
+     * A game from the journal and whoever has taken their seat in it again
+     */
+    private class Restored {
+        final Game game;
+        final Participant[] seats = new Participant[2];
+        boolean expired = false;
+
+        Restored(Game game) {
+            this.game = game;
+        }
+
+        /**
+         * Seats the connection if the key is one of the game's, once both seats are taken play carries on.
+         * Call from inside the game's run().
+         */
+        boolean rejoin(Connection connection, long key) {
+            int seat = key == game.keys[0] ? 0 : key == game.keys[1] ? 1 : -1;
+            if (expired || game.isOver() || seat < 0 || seats[seat] != null) {
+                return false;
+            }
+            Game.Player player = game.new Player(connection, seat == 0 ? 'P' : 'Y');
+            connection.setHandler(player);
+            seats[seat] = player;
+            Participant other = seats[1 - seat];
+            if (other == null) {
+                player.resumed();
+                log.info("Player rejoined game {}, waiting for the other side", game.id);
+                return true;
+            }
+            restored.remove(game.id);
+            player.setOpponent(other);
+            other.setOpponent(player);
+            game.currentPlayer = seats[Game.indexOf(game.markToMove())];
+            player.resumed();
+            if (other instanceof Game.Player) {
+                ((Game.Player) other).resumed();
+            } else if (game.currentPlayer == other) {
+                // the computer's turn, as if the human had just moved
+                other.otherPlayerMoved(null);
+            }
+            log.info("Game {} carries on after a restart", game.id);
+            return true;
+        }
+
+        /**
+         * The grace period is over, a game still missing a player ends
+         */
+        void expire() {
+            if (!restored.remove(game.id, this)) {
+                return;
+            }
+            expired = true;
+            for (Participant seat : seats) {
+                if (seat instanceof Game.Player) {
+                    Game.Player player = (Game.Player) seat;
+                    player.connection.send(Protocol.DISCONNECT, "Your opponent didn't reconnect.");
+                    player.connection.close();
+                }
+            }
+            game.finished(ServerMetrics.DISCONNECT);
+        }
+    }
+}
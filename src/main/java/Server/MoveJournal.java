@@ -0,0 +1,502 @@
+package Server;
+
+import Logging.Log;
+import Protocol.Variant;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Durable log of every game being played, so a restart doesn't lose them.
+ *
+ * Records are appended to memory mapped segment files (segment-00000001.log, ...) in one directory.
+ * New segments are zero filled, and every record starts with a non zero type byte, so reading
+ * stops at the first 0. The computer's mark is 'P' or 'Y', or 0 for two humans.
+ * Games on the classic board start with START, any other variant with START_VARIANT. Plies are
+ * only kept modulo 256, enough to spot a torn record:
+ *
+ *   START          [1][game id: long][P key: long][Y key: long][computer's mark: byte]          26 bytes
+ *   MOVE           [2][game id: long][ply: byte][column: byte]                                  11 bytes
+ *   END            [3][game id: long][outcome: byte]                                            10 bytes
+ *   START_VARIANT  [4][as START][rows: byte][columns: byte][connect: byte]                      29 bytes
+ *
+ * Appending takes no lock: a record claims its room in the current segment with one atomic add and
+ * copies its bytes into the mapping there, so games only ever wait on each other when a segment is
+ * full and the next one is switched in. A record whose room was claimed but not yet written when the
+ * process died leaves a gap of zeros, reading that segment stops there, which loses no more than
+ * what was being appended at that moment. The sync thread forces every segment appended to since it
+ * last looked at most once every sync interval (group commit), so a crash loses at most the last
+ * interval of moves. It also gets the next segment ready ahead of time, so rolling over is just
+ * switching buffers.
+ *
+ * Nothing is ever rewritten, the journal only keeps what it still needs: a segment is retired once
+ * every game with records in it has ended, and the sync thread then unmaps and deletes it. On startup
+ * every segment is read back, and the games without an END are handed to the Lobby to be rejoined.
+ * A game whose records don't make sense, a board that can't be or a move that can't be played, is left out.
+ */
+class MoveJournal implements Runnable {
+    private static final Log log = Log.get(MoveJournal.class);
+
+    static final byte START = 1;
+    static final byte MOVE = 2;
+    static final byte END = 3;
+    static final byte START_VARIANT = 4;
+    private static final int START_BYTES = 26;
+    private static final int START_VARIANT_BYTES = 29;
+    private static final int MOVE_BYTES = 11;
+    private static final int END_BYTES = 10;
+    private static final Object unsafe;
+    private static final Method invokeCleaner;
+
+    static {
+        Object theUnsafe = null;
+        Method cleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            theUnsafe = field.get(null);
+            cleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Journal segments can't be unmapped before they're collected: {}", e);
+        }
+        unsafe = theUnsafe;
+        invokeCleaner = cleaner;
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long syncNanos;
+    // every segment not retired yet, guarded by the journal's monitor like spare, preparing and retired
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    // segments holding records of each game that hasn't ended, a game's own records are appended one at a time
+    private final Map<Long, List<Segment>> live = new ConcurrentHashMap<>();
+    private final List<Unfinished> unfinished = new ArrayList<>();
+    private volatile Segment current;
+    // the next segment, made by the sync thread before the current one fills up
+    private Segment spare;
+    // the sync thread is making the spare
+    private boolean preparing = false;
+    // segments nothing needs any more, the sync thread unmaps and deletes them
+    private List<Segment> retired = new ArrayList<>();
+    private long nextGameId = 1;
+    private boolean recovering = false;
+
+    /**
+     * A game found in the journal without an END record
+     */
+    static class Unfinished {
+        final long id;
+        final long[] keys;
+        // 'P' or 'Y' for the computer's seat, 0 if both players are human
+        final char computer;
+        final Variant variant;
+        // the moves read back so far, played
+        final Board board;
+
+        Unfinished(long id, long[] keys, char computer, Variant variant) {
+            this.id = id;
+            this.keys = keys;
+            this.computer = computer;
+            this.variant = variant;
+            board = Board.of(variant);
+        }
+
+        /**
+         * Plays the next move read back
+         * @return false if it couldn't have been played
+         */
+        boolean replay(int col) {
+            if (col < 0 || col >= board.cols() || !board.canPlay(col) || board.hasWinner()) {
+                return false;
+            }
+            board.play(col, board.moves() % 2);
+            return true;
+        }
+    }
+
+    private static class Segment {
+        final int index;
+        final Path path;
+        final MappedByteBuffer buffer;
+        final Set<Long> games = ConcurrentHashMap.newKeySet();
+        // where the next record goes, past the end once the segment is full
+        final AtomicInteger next = new AtomicInteger();
+        // appended to since the sync thread last forced it
+        volatile boolean dirty = false;
+
+        Segment(int index, Path path, MappedByteBuffer buffer) {
+            this.index = index;
+            this.path = path;
+            this.buffer = buffer;
+        }
+    }
+
+    private MoveJournal(ServerConfig config) {
+        dir = Paths.get(config.journal);
+        segmentBytes = config.journalSegmentMegabytes * 1024 * 1024;
+        syncNanos = TimeUnit.MILLISECONDS.toNanos(config.journalSyncMillis);
+    }
+
+    /**
+     * Reads back whatever is in the journal directory and starts a fresh segment to append to
+     */
+    static MoveJournal open(ServerConfig config) throws IOException {
+        MoveJournal journal = new MoveJournal(config);
+        Files.createDirectories(journal.dir);
+        journal.recover();
+        return journal;
+    }
+
+    /**
+     * Starts the thread which syncs appended records to disk
+     */
+    void start() {
+        Thread syncer = new Thread(this, "journal-sync");
+        syncer.setDaemon(true);
+        syncer.start();
+    }
+
+    /**
+     * Games which were still being played when the server last stopped, oldest first
+     */
+    List<Unfinished> unfinished() {
+        return unfinished;
+    }
+
+    /**
+     * One more than the highest game id found in the journal, new games have to start from here
+     */
+    long nextGameId() {
+        return nextGameId;
+    }
+
+    /**
+     * Records a new game
+     * @param computer the computer's mark, 0 if both players are human
+     */
+    void startGame(long id, long keyP, long keyY, char computer, Variant variant) throws IOException {
+        int bytes = variant.isStandard() ? START_BYTES : START_VARIANT_BYTES;
+        Segment segment;
+        int at;
+        do {
+            segment = current;
+            at = reserve(segment, bytes, id);
+        } while (at < 0);
+        MappedByteBuffer buffer = segment.buffer;
+        buffer.putLong(at + 1, id).putLong(at + 9, keyP).putLong(at + 17, keyY).put(at + 25, (byte) computer);
+        if (!variant.isStandard()) {
+            buffer.put(at + 26, (byte) variant.rows).put(at + 27, (byte) variant.cols).put(at + 28, (byte) variant.connect);
+        }
+        commit(segment, at, variant.isStandard() ? START : START_VARIANT);
+    }
+
+    /**
+     * Records a move, ply is the number of pieces on the board after it
+     */
+    void move(long id, int ply, int column) throws IOException {
+        Segment segment;
+        int at;
+        do {
+            segment = current;
+            at = reserve(segment, MOVE_BYTES, id);
+        } while (at < 0);
+        segment.buffer.putLong(at + 1, id).put(at + 9, (byte) ply).put(at + 10, (byte) column);
+        commit(segment, at, MOVE);
+    }
+
+    /**
+     * Records the end of a game and retires any segment this leaves with nothing still being played
+     */
+    void endGame(long id, int outcome) throws IOException {
+        Segment segment;
+        int at;
+        do {
+            segment = current;
+            at = reserve(segment, END_BYTES, id);
+        } while (at < 0);
+        segment.buffer.putLong(at + 1, id).put(at + 9, (byte) outcome);
+        commit(segment, at, END);
+        ended(id);
+    }
+
+    /**
+     * The sync thread, forces whatever was appended since it last looked, makes the next segment
+     * and gets rid of retired ones
+     */
+    public void run() {
+        while (true) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(syncNanos);
+            } catch (InterruptedException e) {
+                return;
+            }
+            List<Segment> dirty = new ArrayList<>();
+            List<Segment> done;
+            int prepare = 0;
+            synchronized (this) {
+                for (Segment segment : segments.values()) {
+                    if (segment.dirty) {
+                        segment.dirty = false;
+                        dirty.add(segment);
+                    }
+                }
+                done = retired;
+                retired = new ArrayList<>();
+                if (spare == null) {
+                    preparing = true;
+                    prepare = current.index + 1;
+                }
+            }
+            // appends carry on while this runs, anything it misses is picked up next time
+            for (Segment segment : dirty) {
+                segment.buffer.force();
+            }
+            // only this thread forces, and no game appends to a retired segment, so nothing touches these any more
+            for (Segment segment : done) {
+                unmap(segment.buffer);
+                try {
+                    Files.deleteIfExists(segment.path);
+                    log.debug("Deleted finished journal segment {}", segment.path);
+                } catch (IOException e) {
+                    log.warn("Couldn't delete journal segment: {}", e);
+                }
+            }
+            if (prepare > 0) {
+                Segment next = null;
+                try {
+                    next = newSegment(prepare);
+                } catch (IOException e) {
+                    log.warn("Couldn't make the next journal segment ahead of time: {}", e);
+                }
+                synchronized (this) {
+                    spare = next;
+                    preparing = false;
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    /**
+     * Claims room for a record in a segment and notes the game has records there, without locking.
+     * The game is noted first, so the segment can't be retired while the record is being written.
+     * @return where the record goes, or -1 if the segment was full and the next one has to be tried
+     */
+    private int reserve(Segment segment, int bytes, long id) throws IOException {
+        boolean added = segment.games.add(id);
+        int at = segment.next.getAndAdd(bytes);
+        if (at + bytes <= segment.buffer.capacity()) {
+            if (added) {
+                live.computeIfAbsent(id, k -> new ArrayList<>()).add(segment);
+            }
+            return at;
+        }
+        if (added) {
+            release(segment, id);
+        }
+        roll(segment);
+        return -1;
+    }
+
+    /**
+     * Moves on from a full segment to the next one, unless another game already has
+     */
+    private synchronized void roll(Segment full) throws IOException {
+        if (full != current) {
+            return;
+        }
+        // only waits if segments fill up faster than the sync thread can make them
+        while (preparing) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted waiting for the next journal segment");
+            }
+        }
+        Segment next = spare != null ? spare : newSegment(full.index + 1);
+        spare = null;
+        segments.put(next.index, next);
+        current = next;
+        if (full.games.isEmpty()) {
+            retire(full);
+        }
+    }
+
+    /**
+     * Writes the type byte last, a record is only there once its type is
+     */
+    private void commit(Segment segment, int at, byte type) {
+        segment.buffer.put(at, type);
+        segment.dirty = true;
+    }
+
+    private void ended(long id) {
+        List<Segment> holding = live.remove(id);
+        if (holding == null) {
+            return;
+        }
+        for (Segment segment : holding) {
+            release(segment, id);
+        }
+    }
+
+    /**
+     * Forgets a game has records in a segment, retiring the segment if no game still being played has any there.
+     * A segment that stops being current after this looked is retired by roll instead.
+     */
+    private void release(Segment segment, long id) {
+        segment.games.remove(id);
+        // while recovering, a segment can still have records for later games left to read
+        if (!recovering && segment != current && segment.games.isEmpty()) {
+            retire(segment);
+        }
+    }
+
+    private synchronized void retire(Segment segment) {
+        if (segments.remove(segment.index, segment)) {
+            retired.add(segment);
+        }
+    }
+
+    /**
+     * Releases a mapping straight away instead of whenever the buffer is collected, which could be never
+     * for a buffer that lived long enough. Goes through the JDK's Unsafe.invokeCleaner, there's no public way
+     * on this Java, and leaves it to the collector if that isn't there.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (invokeCleaner == null) {
+            return;
+        }
+        try {
+            invokeCleaner.invoke(unsafe, buffer);
+        } catch (ReflectiveOperationException e) {
+            log.debug("Couldn't unmap a journal segment: {}", e);
+        }
+    }
+
+    /**
+     * Creates and maps a segment file, it's only listed in segments once it's appended to
+     */
+    private Segment newSegment(int index) throws IOException {
+        Path path = dir.resolve(String.format("segment-%08d.log", index));
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(segmentBytes);
+            return new Segment(index, path, file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes));
+        }
+    }
+
+    /**
+     * Replays every segment in order, then retires the ones with no unfinished games left
+     */
+    private void recover() throws IOException {
+        Map<Long, Unfinished> games = new LinkedHashMap<>();
+        int last = 0;
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "segment-*.log")) {
+            files.forEach(paths::add);
+        }
+        Collections.sort(paths);
+        recovering = true;
+        for (Path path : paths) {
+            String name = path.getFileName().toString();
+            int index = Integer.parseInt(name.substring(8, name.length() - 4));
+            last = Math.max(last, index);
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            }
+            Segment segment = new Segment(index, path, buffer);
+            segments.put(index, segment);
+            read(segment, games);
+        }
+        recovering = false;
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment.games.isEmpty()) {
+                retire(segment);
+            }
+        }
+        unfinished.addAll(games.values());
+        current = newSegment(last + 1);
+        segments.put(current.index, current);
+        if (!unfinished.isEmpty()) {
+            log.info("Journal has {} unfinished games", unfinished.size());
+        }
+    }
+
+    private void read(Segment segment, Map<Long, Unfinished> games) {
+        ByteBuffer buffer = segment.buffer;
+        int at = 0;
+        int limit = buffer.capacity();
+        while (at < limit) {
+            byte type = buffer.get(at);
+            boolean sized = type == START_VARIANT;
+            if ((type == START || sized) && at + (sized ? START_VARIANT_BYTES : START_BYTES) <= limit) {
+                long id = buffer.getLong(at + 1);
+                byte computer = buffer.get(at + 25);
+                nextGameId = Math.max(nextGameId, id + 1);
+                Variant variant = Variant.STANDARD;
+                if (sized) {
+                    try {
+                        variant = new Variant(buffer.get(at + 26), buffer.get(at + 27), buffer.get(at + 28));
+                    } catch (IllegalArgumentException e) {
+                        variant = null;
+                    }
+                }
+                if (variant == null || (computer != 0 && computer != 'P' && computer != 'Y')) {
+                    log.warn("Journal game {} has a start record that makes no sense, leaving it out", id);
+                    drop(games, id);
+                } else {
+                    games.put(id, new Unfinished(id, new long[]{buffer.getLong(at + 9), buffer.getLong(at + 17)},
+                        (char) computer, variant));
+                    noteLive(segment, id);
+                }
+                at += sized ? START_VARIANT_BYTES : START_BYTES;
+            } else if (type == MOVE && at + MOVE_BYTES <= limit) {
+                long id = buffer.getLong(at + 1);
+                Unfinished game = games.get(id);
+                // a ply out of order can only be a record torn by a crash, ignore it
+                if (game != null && (buffer.get(at + 9) & 0xFF) == ((game.board.moves() + 1) & 0xFF)) {
+                    if (game.replay(buffer.get(at + 10))) {
+                        noteLive(segment, id);
+                    } else {
+                        log.warn("Journal game {} has a move that can't be played, leaving it out", id);
+                        drop(games, id);
+                    }
+                }
+                at += MOVE_BYTES;
+            } else if (type == END && at + END_BYTES <= limit) {
+                long id = buffer.getLong(at + 1);
+                games.remove(id);
+                ended(id);
+                at += END_BYTES;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Forgets a game read back so far, its segments go once nothing else needs them
+     */
+    private void drop(Map<Long, Unfinished> games, long id) {
+        games.remove(id);
+        ended(id);
+    }
+
+    private void noteLive(Segment segment, long id) {
+        if (segment.games.add(id)) {
+            live.computeIfAbsent(id, k -> new ArrayList<>()).add(segment);
+        }
+    }
+}
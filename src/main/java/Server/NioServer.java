@@ -0,0 +1,55 @@
+package Server;
+
+import Logging.Log;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.*;
+
+/**
+ * Server mode where a small pool of selector threads own every connection instead of
+ * each player having a thread of its own. The wire protocol is exactly the same.
+ */
+class NioServer {
+    private static final Log log = Log.get(NioServer.class);
+
+    private final ServerConfig config;
+    private final Lobby lobby;
+    private final EventLoop[] loops;
+    private int nextLoop = 0;
+
+    NioServer(ServerConfig config, Lobby lobby) throws IOException {
+        this.config = config;
+        this.lobby = lobby;
+        loops = new EventLoop[config.eventLoops];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop();
+            Thread thread = new Thread(loops[i], "event-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /**
+     * Accepts clients forever, spreading them over the event loops and handing them to the lobby
+     */
+    void run() throws IOException {
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            listener.bind(new InetSocketAddress(config.port));
+            log.info("Connect Four Server is Running (nio, {} event loops)", loops.length);
+            while (true) {
+                SocketChannel channel = listener.accept();
+                long connectedAt = System.nanoTime();
+                EventLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+                try {
+                    ChannelConnection connection = new ChannelConnection(channel, loop, config);
+                    lobby.join(connection, connectedAt);
+                    loop.register(connection);
+                } catch (IOException e) {
+                    log.warn("Player exited application: {}", e);
+                    try {channel.close();} catch (IOException ioe) {}
+                }
+            }
+        }
+    }
+}
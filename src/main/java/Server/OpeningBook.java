@@ -0,0 +1,163 @@
+package Server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+/**
+ * Perfect scores of early positions, read from a file made by OpeningBookGenerator.
+ *
+ * The file is memory mapped read only, so every server process using the same book shares
+ * one copy in the page cache. It is a header followed by fixed width records sorted by key,
+ * so a lookup is a binary search straight over the mapped bytes and allocates nothing.
+ *
+ * File layout (big endian):
+ *
+ *   header  magic int, version int, min ply int, max ply int, record count long, reserved long
+ *   record  canonical position key << 8 | score byte
+ *
+ * The key of a position is Solver.key(current, mask) and the canonical key is the smaller of
+ * the key and the key of the position mirrored left to right, so mirrored positions share a record.
+ * The score is from the point of view of the side to move: 0 for a draw, positive if it wins and
+ * negative if it loses, and the further from 0 the sooner the game ends.
+ */
+class OpeningBook {
+    static final int MAGIC = 0x43344B42;
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 32;
+    static final int MISSING = Integer.MIN_VALUE;
+    private static final int H1 = BitBoard.ROWS + 1;
+
+    private final MappedByteBuffer records;
+    private final long count;
+    final int minPly;
+    final int maxPly;
+
+    private OpeningBook(MappedByteBuffer records) throws IOException {
+        this.records = records;
+        if (records.getInt(0) != MAGIC || records.getInt(4) != VERSION) {
+            throw new IOException("Not a version " + VERSION + " opening book");
+        }
+        minPly = records.getInt(8);
+        maxPly = records.getInt(12);
+        count = records.getLong(16);
+        if (HEADER_BYTES + count * Long.BYTES > records.capacity()) {
+            throw new IOException("Opening book is truncated");
+        }
+    }
+
+    /**
+     * Maps a book file into memory
+     */
+    static OpeningBook open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            return new OpeningBook(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Number of positions in the book
+     */
+    long size() {
+        return count;
+    }
+
+    /**
+     * Looks a position up
+     * @param current pieces of the side to move
+     * @param mask every occupied square
+     * @return the book score, or MISSING if the position isn't in the book
+     */
+    int lookup(long current, long mask) {
+        long key = canonicalKey(current, mask);
+        long low = 0;
+        long high = count - 1;
+        while (low <= high) {
+            long mid = (low + high) >>> 1;
+            long record = records.getLong((int) (HEADER_BYTES + mid * Long.BYTES));
+            long midKey = record >>> 8;
+            if (midKey < key) {
+                low = mid + 1;
+            } else if (midKey > key) {
+                high = mid - 1;
+            } else {
+                return (byte) record;
+            }
+        }
+        return MISSING;
+    }
+
+    /**
+     * The best column for the side to move if every move from here is in the book
+     * @return the column, or -1 if the book can't say
+     */
+    int bestMove(long current, long mask) {
+        int best = -1;
+        int bestScore = Integer.MIN_VALUE;
+        for (int col = 0; col < BitBoard.COLS; col++) {
+            if (!Solver.canPlay(mask, col)) {
+                continue;
+            }
+            if (Solver.isWinningMove(current, mask, col)) {
+                return col;
+            }
+            long next = mask | (mask + Solver.bottom(col));
+            int theirs = lookup(current ^ mask, next);
+            if (theirs == MISSING) {
+                return -1;
+            }
+            // what's good for the opponent is bad for us
+            if (-theirs > bestScore) {
+                bestScore = -theirs;
+                best = col;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Key shared by a position and its mirror image
+     */
+    static long canonicalKey(long current, long mask) {
+        long key = Solver.key(current, mask);
+        return Math.min(key, mirror(key));
+    }
+
+    /**
+     * Flips a bitmap in the BitBoard layout left to right. Solver keys can be mirrored
+     * this way too, since adding the pieces to the mask never carries out of a column.
+     */
+    static long mirror(long bits) {
+        long mirrored = 0;
+        for (int col = 0; col < BitBoard.COLS; col++) {
+            long column = (bits >>> (col * H1)) & ((1L << H1) - 1);
+            mirrored |= column << ((BitBoard.COLS - 1 - col) * H1);
+        }
+        return mirrored;
+    }
+
+    /**
+     * Converts a Solver.solve score to the one byte book score
+     */
+    static int fromSolverScore(int score) {
+        if (score > Solver.WIN) {
+            return score - Solver.WIN;
+        } else if (score < -Solver.WIN) {
+            return score + Solver.WIN;
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the header for a book, the records follow it
+     */
+    static ByteBuffer header(int minPly, int maxPly, long count) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putInt(minPly).putInt(maxPly).putLong(count).putLong(0);
+        header.flip();
+        return header;
+    }
+}
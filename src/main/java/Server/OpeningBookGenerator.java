@@ -0,0 +1,139 @@
+package Server;
+
+import Logging.Log;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Offline tool which solves every position between two plies and writes them to an opening book,
+ * see OpeningBook for the file format.
+ *
+ *   java Server.OpeningBookGenerator --out=book.bin --max-ply=6 [--min-ply=0] [--root=44] [--threads=8] [--memory-mb=256]
+ *
+ * --root starts from the position after the given moves (columns 1 to 7) instead of the empty board,
+ * plies are still counted from the empty board. Positions where someone has already won aren't stored.
+ * Early positions take a long time to solve, the work is spread over a fork join pool.
+ */
+public class OpeningBookGenerator {
+    private static final Log log = Log.get(OpeningBookGenerator.class);
+
+    public static void main(String[] args) throws Exception {
+        Path out = Paths.get("book.bin");
+        int minPly = 0;
+        int maxPly = 6;
+        String root = "";
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memory = 256L * 1024 * 1024;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (name) {
+                case "--out": out = Paths.get(value); break;
+                case "--min-ply": minPly = Integer.parseInt(value); break;
+                case "--max-ply": maxPly = Integer.parseInt(value); break;
+                case "--root": root = value; break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--memory-mb": memory = Long.parseLong(value) * 1024 * 1024; break;
+                default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        generate(out, root, minPly, maxPly, threads, memory);
+    }
+
+    /**
+     * Finds, solves and writes every position between the plies reachable from root
+     */
+    static void generate(Path out, String root, int minPly, int maxPly, int threads, long memory) throws IOException {
+        BitBoard start = new BitBoard();
+        int player = 0;
+        for (char c : root.toCharArray()) {
+            int col = c - '1';
+            if (!start.canPlay(col) || start.hasWinner()) {
+                throw new IllegalArgumentException("Can't play root move " + c);
+            }
+            start.play(col, player);
+            player ^= 1;
+        }
+
+        long started = System.nanoTime();
+        Set<Long> seen = new HashSet<>();
+        List<long[]> positions = new ArrayList<>();
+        collect(start.pieces(player), start.mask(), start.moves(), minPly, maxPly, seen, positions);
+        log.info("Found {} positions between ply {} and {}, solving", positions.size(), minPly, maxPly);
+
+        long[] records = new long[positions.size()];
+        AtomicLong done = new AtomicLong();
+        ThreadLocal<Solver> solvers = ThreadLocal.withInitial(() -> new Solver(memory / threads));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.submit(() -> java.util.stream.IntStream.range(0, records.length).parallel().forEach(i -> {
+                long[] position = positions.get(i);
+                int score = solvers.get().solve(position[0], position[1], Long.bitCount(position[1]));
+                records[i] = (OpeningBook.canonicalKey(position[0], position[1]) << 8)
+                           | (OpeningBook.fromSolverScore(score) & 0xFF);
+                long finished = done.incrementAndGet();
+                if (finished % 1000 == 0) {
+                    log.info("Solved {} of {}", finished, records.length);
+                }
+            })).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IOException("Solving failed", e);
+        } finally {
+            pool.shutdown();
+        }
+
+        // the score is in the low byte and keys are unique, so this sorts by key
+        Arrays.sort(records);
+        write(out, minPly, maxPly, records);
+        log.info("Wrote {} positions to {} in {} s", records.length, out, (System.nanoTime() - started) / 1_000_000_000);
+    }
+
+    /**
+     * Depth first walk keeping one of each position and its mirror image
+     */
+    private static void collect(long current, long mask, int moves, int minPly, int maxPly, Set<Long> seen, List<long[]> positions) {
+        if (moves > maxPly || !seen.add(OpeningBook.canonicalKey(current, mask))) {
+            return;
+        }
+        if (moves >= minPly) {
+            positions.add(new long[]{current, mask});
+        }
+        if (moves == BitBoard.ROWS * BitBoard.COLS) {
+            return;
+        }
+        for (int col = 0; col < BitBoard.COLS; col++) {
+            if (Solver.canPlay(mask, col) && !Solver.isWinningMove(current, mask, col)) {
+                collect(current ^ mask, mask | (mask + Solver.bottom(col)), moves + 1, minPly, maxPly, seen, positions);
+            }
+        }
+    }
+
+    private static void write(Path out, int minPly, int maxPly, long[] records) throws IOException {
+        try (FileChannel channel = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(OpeningBook.header(minPly, maxPly, records.length));
+            ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+            for (long record : records) {
+                if (!buffer.hasRemaining()) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    buffer.clear();
+                }
+                buffer.putLong(record);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package Server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What is waiting to be written to one client. It is bounded, so a client that stops reading
+ * costs the server a fixed amount of memory and whoever sends to it never waits:
+ *
+ *   under the hover mark          everything is queued
+ *   from the hover mark           cursor positions are held back, only the newest is kept and it
+ *                                 goes out once the queue is back under the mark
+ *   past the limit, or nothing    the client is cut off
+ *   written for the stall time
+ *
+ * Not thread safe, the connection guards it with its own lock.
+ */
+class OutboundQueue {
+    static final long NONE = -1;
+
+    private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+    private final int hoverMark;
+    private final int limit;
+    private final long stallNanos;
+    // bytes queued or taken by the writer and not yet written
+    private int queued = 0;
+    // when the writer last got anything out, or when the queue last stopped being empty
+    private long progressAt;
+    // the newest cursor position held back, NONE if there isn't one
+    private long owedHover = NONE;
+
+    OutboundQueue(ServerConfig config) {
+        hoverMark = config.outboundHoverBytes;
+        limit = config.outboundMaxBytes;
+        stallNanos = TimeUnit.MILLISECONDS.toNanos(config.outboundStallMillis);
+    }
+
+    boolean isEmpty() {
+        return queued == 0;
+    }
+
+    /**
+     * Keeps a cursor position back instead of queuing it if the client is behind
+     * @return true if it was kept back, false if it should be queued
+     */
+    boolean holdHover(int x, int y) {
+        if (queued < hoverMark) {
+            return false;
+        }
+        if (owedHover == NONE) {
+            ServerMetrics.hoversHeldBack.increment();
+        }
+        owedHover = ((long) x << 32) | (y & 0xFFFFFFFFL);
+        return true;
+    }
+
+    /**
+     * The cursor position held back, once the client has caught up enough to be sent it
+     * @return x in the high half and y in the low half, or NONE
+     */
+    long takeOwedHover() {
+        if (owedHover == NONE || queued >= hoverMark) {
+            return NONE;
+        }
+        long hover = owedHover;
+        owedHover = NONE;
+        return hover;
+    }
+
+    /**
+     * Queues the bytes of one message
+     * @return false if the client is too far behind and has to be cut off, nothing was queued
+     */
+    boolean add(ByteBuffer bytes, long now) {
+        if (queued + bytes.remaining() > limit || stalled(now)) {
+            return false;
+        }
+        if (queued == 0) {
+            progressAt = now;
+        }
+        buffers.add(bytes);
+        queued += bytes.remaining();
+        return true;
+    }
+
+    /**
+     * Whether there's been something to write for longer than the stall time without any of it going out
+     */
+    boolean stalled(long now) {
+        return queued > 0 && now - progressAt > stallNanos;
+    }
+
+    /**
+     * The message being written, null if there's none
+     */
+    ByteBuffer peek() {
+        return buffers.peek();
+    }
+
+    /**
+     * Drops the message at the front once all of it is written
+     */
+    void poll() {
+        buffers.poll();
+    }
+
+    /**
+     * Hands every queued message to a writer, they still count as queued until it reports them written
+     * @return the number of bytes taken
+     */
+    int drainTo(List<ByteBuffer> batch) {
+        int bytes = 0;
+        ByteBuffer buffer;
+        while ((buffer = buffers.poll()) != null) {
+            bytes += buffer.remaining();
+            batch.add(buffer);
+        }
+        return bytes;
+    }
+
+    /**
+     * Counts bytes that made it onto the socket
+     */
+    void wrote(int bytes, long now) {
+        queued -= bytes;
+        progressAt = now;
+    }
+
+    void clear() {
+        buffers.clear();
+        queued = 0;
+        owedHover = NONE;
+    }
+}
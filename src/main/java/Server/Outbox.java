@@ -0,0 +1,51 @@
+package Server;
+
+/**
+ * The last few messages sent to a player, numbered from the start of the game, so that a client
+ * which lost its connection for a moment can be sent just the ones it missed.
+ *
+ * Only messages Protocol.replayable() says a client counts go in here. Kept as parallel arrays
+ * used as a ring so recording a message doesn't allocate. Not thread safe, Game.Player locks it.
+ */
+class Outbox {
+    static final int CAPACITY = 64;
+
+    private final int[] opcodes = new int[CAPACITY];
+    private final int[] as = new int[CAPACITY];
+    private final int[] bs = new int[CAPACITY];
+    private final String[] texts = new String[CAPACITY];
+    private long sent = 0;
+
+    void record(int opcode, int a, int b, String text) {
+        int slot = (int) (sent % CAPACITY);
+        opcodes[slot] = opcode;
+        as[slot] = a;
+        bs[slot] = b;
+        texts[slot] = text;
+        sent++;
+    }
+
+    /**
+     * Number of messages recorded so far
+     */
+    long sent() {
+        return sent;
+    }
+
+    /**
+     * Whether everything after the first received messages is still here
+     */
+    boolean canReplayFrom(long received) {
+        return received >= 0 && received <= sent && sent - received <= CAPACITY;
+    }
+
+    /**
+     * Sends everything after the first received messages again, check canReplayFrom first
+     */
+    void replayFrom(long received, Connection connection) {
+        for (long i = received; i < sent; i++) {
+            int slot = (int) (i % CAPACITY);
+            connection.send(opcodes[slot], as[slot], bs[slot], texts[slot]);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package Server;
+
+/**
+ * One of the two sides of a Game, either a human behind a connection (Game.Player)
+ * or the computer (AIPlayer). Game only talks to its players through this.
+ */
+interface Participant {
+
+    /**
+     * The mark this side plays with, 'P' or 'Y'
+     */
+    char mark();
+
+    /**
+     * Who this side is playing against
+     */
+    Participant opponent();
+
+    void setOpponent(Participant opponent);
+
+    /**
+     * Called once both sides are in the game
+     */
+    void ready();
+
+    /**
+     * Called by Game.legalMove when the other side has played, from inside Game.run.
+     * It is now this side's turn unless the game is over.
+     * @param location the row and column the other side's piece landed in
+     */
+    void otherPlayerMoved(int[] location);
+
+    /**
+     * The other side's cursor moved
+     */
+    void opponentMouseMoved(int x, int y);
+
+    /**
+     * The other side left the game
+     */
+    void opponentDisconnected();
+
+    /**
+     * A clock ran out and the game is over, called from inside Game.run
+     * @param own true for the side whose clock it was
+     */
+    default void outOfTime(boolean own) {
+    }
+
+    /**
+     * The other side lost its connection but may still resume
+     */
+    default void opponentAway() {
+    }
+
+    /**
+     * The other side resumed after losing its connection
+     */
+    default void opponentBack() {
+    }
+}
@@ -0,0 +1,378 @@
+package Server;
+
+import Logging.Log;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Offline tool which plays computer against computer in process, as many games as asked for,
+ * to tune the computer's strength and see how balanced the game is.
+ *
+ *   java Server.SelfPlay --games=1000000 [--first=heuristic] [--second=solver:6] [--random-opening=2]
+ *                        [--seed=1] [--threads=8] [--memory-mb=64] [--out=results.csv] [--report-seconds=1]
+ *
+ * A policy is random, heuristic, or solver with an optional search depth (solver:6). The first
+ * --random-opening plies of every game are random whatever the policies, so deterministic policies
+ * don't play the same game over and over. Game n is always played from the same seed, so a run
+ * can be repeated exactly whatever the number of threads.
+ *
+ * The games are split over a fork join pool. Each worker thread keeps one board, one random
+ * generator and its own policies (a solver has its transposition table) and resets them for every
+ * game, so playing allocates nothing. A solver breaks ties with the game's generator too. Running totals are logged every --report-seconds, and with
+ * --out every game is appended as "game,winner,moves,columns", winner being P, Y or - for a tie and
+ * columns the moves from 1 to 7 as for OpeningBookGenerator --root. Lines are written a batch at a
+ * time, so games don't come out in order.
+ */
+public class SelfPlay {
+    private static final Log log = Log.get(SelfPlay.class);
+    private static final char[] MARKS = {'P', 'Y'};
+    // games each fork join task plays before writing its lines and adding to the totals
+    private static final int BATCH = 1024;
+    private static final int H1 = BitBoard.ROWS + 1;
+
+    /**
+     * Chooses the column to play for the side to move
+     */
+    interface Policy {
+        /**
+         * @param board never full and without a winner
+         * @param player 0 or 1, the side to move
+         */
+        int choose(BitBoard board, int player, Rng random);
+
+        /**
+         * A new game is starting, forget anything kept from the last one
+         */
+        default void newGame() {
+        }
+    }
+
+    private final long games;
+    private final String firstPolicy;
+    private final String secondPolicy;
+    private final int randomOpening;
+    private final long seed;
+    private final long memoryPerThread;
+    private final FileChannel out;
+    private final ThreadLocal<Worker> workers;
+
+    private final LongAdder played = new LongAdder();
+    private final LongAdder[] wins = {new LongAdder(), new LongAdder()};
+    private final LongAdder ties = new LongAdder();
+    private final LongAdder moves = new LongAdder();
+
+    SelfPlay(long games, String firstPolicy, String secondPolicy, int randomOpening, long seed,
+             long memoryPerThread, FileChannel out) {
+        this.games = games;
+        this.firstPolicy = firstPolicy;
+        this.secondPolicy = secondPolicy;
+        this.randomOpening = randomOpening;
+        this.seed = seed;
+        this.memoryPerThread = memoryPerThread;
+        this.out = out;
+        // both policies are checked here with the smallest table, a typo shouldn't only show up on the worker threads
+        policy(firstPolicy, 0);
+        policy(secondPolicy, 0);
+        workers = ThreadLocal.withInitial(Worker::new);
+    }
+
+    public static void main(String[] args) throws Exception {
+        long games = 100_000;
+        String first = "heuristic";
+        String second = "heuristic";
+        int randomOpening = 2;
+        long seed = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        long memory = 64L * 1024 * 1024;
+        Path out = null;
+        int reportSeconds = 1;
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg : arg.substring(0, eq);
+            String value = eq < 0 ? "" : arg.substring(eq + 1);
+            switch (name) {
+                case "--games": games = Long.parseLong(value); break;
+                case "--first": first = value; break;
+                case "--second": second = value; break;
+                case "--random-opening": randomOpening = Integer.parseInt(value); break;
+                case "--seed": seed = Long.parseLong(value); break;
+                case "--threads": threads = Integer.parseInt(value); break;
+                case "--memory-mb": memory = Long.parseLong(value) * 1024 * 1024; break;
+                case "--out": out = Paths.get(value); break;
+                case "--report-seconds": reportSeconds = Integer.parseInt(value); break;
+                default: throw new IllegalArgumentException("Unknown option " + arg);
+            }
+        }
+        FileChannel channel = out == null ? null : FileChannel.open(out, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            new SelfPlay(games, first, second, randomOpening, seed, memory / threads, channel).run(threads, reportSeconds);
+        } finally {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Plays every game, logging the totals as it goes and once more at the end
+     */
+    void run(int threads, int reportSeconds) throws IOException {
+        log.info("Playing {} games, {} against {}, {} random opening plies, on {} threads",
+            games, firstPolicy, secondPolicy, randomOpening, threads);
+        long started = System.nanoTime();
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "self-play-report");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> report(started), reportSeconds, reportSeconds, TimeUnit.SECONDS);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new Batch(0, games));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+            reporter.shutdownNow();
+        }
+        report(started);
+    }
+
+    /**
+     * Logs the totals so far
+     */
+    private void report(long started) {
+        long count = played.sum();
+        double seconds = (System.nanoTime() - started) / 1_000_000_000.0;
+        double total = Math.max(1, count);
+        log.info("{} games, {} games/min, first player wins {}%, second {}%, ties {}%, {} moves a game",
+            count, Math.round(count / seconds * 60),
+            percent(wins[0].sum(), total), percent(wins[1].sum(), total), percent(ties.sum(), total),
+            Math.round(moves.sum() / total * 10) / 10.0);
+    }
+
+    private static double percent(long part, double total) {
+        return Math.round(part / total * 1000) / 10.0;
+    }
+
+    /**
+     * A policy by name, with its own state so each worker needs its own
+     */
+    static Policy policy(String spec, long memoryBytes) {
+        String[] parts = spec.split(":");
+        switch (parts[0]) {
+            case "random":
+                return SelfPlay::randomColumn;
+            case "heuristic":
+                return SelfPlay::heuristicColumn;
+            case "solver":
+                int depth = parts.length > 1 ? Integer.parseInt(parts[1]) : AIPlayer.Difficulty.MEDIUM.depth;
+                Solver solver = new Solver(memoryBytes);
+                return new Policy() {
+                    @Override
+                    public int choose(BitBoard board, int player, Rng random) {
+                        return solver.bestMove(board.pieces(player), board.mask(), board.moves(), depth, 0, random);
+                    }
+
+                    @Override
+                    public void newGame() {
+                        solver.newGame();
+                    }
+                };
+            default:
+                throw new IllegalArgumentException("Unknown policy " + spec + ", expected random, heuristic or solver[:depth]");
+        }
+    }
+
+    private static int randomColumn(BitBoard board, int player, Rng random) {
+        int col;
+        do {
+            col = random.nextInt(BitBoard.COLS);
+        } while (!board.canPlay(col));
+        return col;
+    }
+
+    /**
+     * Wins if it can, blocks the opponent's win if it has to, never plays right under a square the
+     * opponent would win on if there's anything else, and otherwise makes the most new lines of three,
+     * the centre breaking ties before chance does
+     */
+    private static int heuristicColumn(BitBoard board, int player, Rng random) {
+        long current = board.pieces(player);
+        long mask = board.mask();
+        long possible = Solver.possible(mask);
+        long wins = Solver.winningSquares(current, mask) & possible;
+        if (wins != 0) {
+            return Long.numberOfTrailingZeros(wins) / H1;
+        }
+        long threats = Solver.winningSquares(current ^ mask, mask);
+        if ((threats & possible) != 0) {
+            return Long.numberOfTrailingZeros(threats & possible) / H1;
+        }
+        long safe = possible & ~(threats >>> 1);
+        if (safe == 0) {
+            safe = possible;
+        }
+        int best = -1;
+        int bestScore = Integer.MIN_VALUE;
+        int tied = 0;
+        for (int col = 0; col < BitBoard.COLS; col++) {
+            long move = safe & Solver.columnMask(col);
+            if (move == 0) {
+                continue;
+            }
+            int score = 4 * Long.bitCount(Solver.winningSquares(current | move, mask | move))
+                      + BitBoard.COLS / 2 - Math.abs(BitBoard.COLS / 2 - col);
+            if (score > bestScore) {
+                best = col;
+                bestScore = score;
+                tied = 1;
+            } else if (score == bestScore && random.nextInt(++tied) == 0) {
+                best = col;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * What one fork join thread plays with, reset for every game
+     */
+    private class Worker {
+        final BitBoard board = new BitBoard();
+        final Rng random = new Rng();
+        final Policy[] policies = {policy(firstPolicy, memoryPerThread), policy(secondPolicy, memoryPerThread)};
+        final byte[] columns = new byte[BitBoard.ROWS * BitBoard.COLS];
+        final StringBuilder lines = new StringBuilder();
+
+        /**
+         * Plays game number n and adds it to the batch's lines
+         * @return the winner, 0 or 1, or -1 for a tie
+         */
+        int play(long n) {
+            board.reset();
+            random.seed(seed * 0x9E3779B97F4A7C15L + n);
+            policies[0].newGame();
+            policies[1].newGame();
+            int player = 0;
+            while (!board.hasWinner() && !board.isFull()) {
+                int col = board.moves() < randomOpening
+                    ? randomColumn(board, player, random) : policies[player].choose(board, player, random);
+                columns[board.moves()] = (byte) col;
+                board.play(col, player);
+                player ^= 1;
+            }
+            int winner = board.hasWinner() ? player ^ 1 : -1;
+            if (out != null) {
+                lines.append(n).append(',').append(winner < 0 ? '-' : MARKS[winner]).append(',').append(board.moves()).append(',');
+                for (int i = 0; i < board.moves(); i++) {
+                    lines.append((char) ('1' + columns[i]));
+                }
+                lines.append('\n');
+            }
+            return winner;
+        }
+    }
+
+    /**
+     * Games [from, to), split in half until there are few enough to play in one go
+     */
+    private class Batch extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final long from;
+        private final long to;
+
+        Batch(long from, long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > BATCH) {
+                long middle = (from + to) >>> 1;
+                invokeAll(new Batch(from, middle), new Batch(middle, to));
+                return;
+            }
+            Worker worker = workers.get();
+            int first = 0;
+            int second = 0;
+            int tied = 0;
+            long totalMoves = 0;
+            for (long n = from; n < to; n++) {
+                int winner = worker.play(n);
+                if (winner == 0) {
+                    first++;
+                } else if (winner == 1) {
+                    second++;
+                } else {
+                    tied++;
+                }
+                totalMoves += worker.board.moves();
+            }
+            wins[0].add(first);
+            wins[1].add(second);
+            ties.add(tied);
+            moves.add(totalMoves);
+            played.add(to - from);
+            if (out != null) {
+                write(worker.lines);
+            }
+        }
+    }
+
+    /**
+     * Appends a batch of lines to the output, one batch at a time
+     */
+    private void write(StringBuilder lines) {
+        ByteBuffer bytes = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.US_ASCII));
+        lines.setLength(0);
+        synchronized (out) {
+            try {
+                while (bytes.hasRemaining()) {
+                    out.write(bytes);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * SplitMix64, reseeded for every game instead of making a new generator.
+     * Also what a solver breaks ties with.
+     */
+    static final class Rng implements IntUnaryOperator {
+        private long state;
+
+        void seed(long seed) {
+            state = seed;
+        }
+
+        long nextLong() {
+            long z = (state += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+
+        /**
+         * A number from 0 up to but not including bound
+         */
+        int nextInt(int bound) {
+            return (int) (((nextLong() >>> 32) * bound) >>> 32);
+        }
+
+        @Override
+        public int applyAsInt(int bound) {
+            return nextInt(bound);
+        }
+    }
+}
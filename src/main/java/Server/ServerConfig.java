@@ -0,0 +1,172 @@
+package Server;
+
+import Logging.Log;
+import Protocol.Protocol;
+import Protocol.Variant;
+
+/**
+ * Startup options for the server, given on the command line as --name=value
+ */
+class ServerConfig {
+
+    /**
+     * How client connections are serviced
+     */
+    enum Mode {
+        /** one blocking thread per player (the original server) */
+        THREADS,
+        /** one blocking virtual thread per player */
+        VIRTUAL,
+        /** a few selector threads own every connection */
+        NIO
+    }
+
+    Mode mode = Mode.THREADS;
+    int port = 8901;
+    // which server this is behind a Router, stamped on every game id so resumes find their way back here
+    int node = 0;
+    int eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors());
+    // threads that own the games, each game runs on one of them without locking, 0 locks each game's monitor instead
+    int gameShards = 0;
+    int queueTimeoutSeconds = 300;
+    // bytes waiting for a client above which its opponent's cursor is held back, past the max it is cut off,
+    // as it is when nothing has gone out to it for the stall time
+    int outboundHoverBytes = 1024;
+    int outboundMaxBytes = 64 * 1024;
+    int outboundStallMillis = 10_000;
+    // HEARTBEAT goes to a client quiet for this long, one that has answered before and is quiet for the idle
+    // timeout is disconnected, 0 turns either off and no heartbeats means no reaping
+    int heartbeatSeconds = 20;
+    int idleTimeoutSeconds = 90;
+    // blitz clocks, e.g. --clock=60+2 for a minute each and two seconds more per move, 0 plays untimed
+    long clockMillis = 0;
+    long clockIncrementMillis = 0;
+    // how often opponent cursor positions are sent, 0 sends every update straight away
+    int hoverHz = 25;
+    // a player still waiting for an opponent after this long plays the computer, 0 never does
+    int aiAfterSeconds = 10;
+    // the board for players who don't ask for another, e.g. --variant=8x9/5 for connect 5 on 8 rows of 9
+    Variant variant = Variant.STANDARD;
+    AIPlayer.Difficulty aiLevel = AIPlayer.Difficulty.MEDIUM;
+    long aiMoveMillis = 500;
+    int aiThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    int aiMemoryMegabytes = 64;
+    // opening book made by OpeningBookGenerator, the hard computer plays from it while it can
+    String book = null;
+    // directory of the move journal which lets games survive a restart, no journal if not given
+    String journal = null;
+    int journalSyncMillis = 5;
+    int journalSegmentMegabytes = 8;
+    // how long players of games read back from the journal have to reconnect
+    int rejoinGraceSeconds = 60;
+    // how long a player who lost the connection has to resume before the game ends, 0 ends it straight away
+    int resumeGraceSeconds = 30;
+    // local port serving /metrics, 0 turns it off
+    int metricsPort = 8902;
+
+    /**
+     * Reads the options out of the program arguments, anything not given keeps its default
+     */
+    static ServerConfig parse(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (!arg.startsWith("--") || eq < 0) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            String name = arg.substring(2, eq);
+            String value = arg.substring(eq + 1);
+            switch (name) {
+                case "mode":
+                    config.mode = Mode.valueOf(value.toUpperCase());
+                    break;
+                case "port":
+                    config.port = Integer.parseInt(value);
+                    break;
+                case "node":
+                    config.node = Integer.parseInt(value);
+                    if (config.node < 0 || config.node >= 1 << (Long.SIZE - 1 - Protocol.NODE_SHIFT)) {
+                        throw new IllegalArgumentException("--node must be from 0 to 32767");
+                    }
+                    break;
+                case "loops":
+                    config.eventLoops = Integer.parseInt(value);
+                    break;
+                case "game-shards":
+                    config.gameShards = Integer.parseInt(value);
+                    break;
+                case "outbound-hover-bytes":
+                    config.outboundHoverBytes = Integer.parseInt(value);
+                    break;
+                case "outbound-max-bytes":
+                    config.outboundMaxBytes = Integer.parseInt(value);
+                    break;
+                case "outbound-stall-ms":
+                    config.outboundStallMillis = Integer.parseInt(value);
+                    break;
+                case "heartbeat":
+                    config.heartbeatSeconds = Integer.parseInt(value);
+                    break;
+                case "idle-timeout":
+                    config.idleTimeoutSeconds = Integer.parseInt(value);
+                    break;
+                case "clock":
+                    int plus = value.indexOf('+');
+                    config.clockMillis = Math.round(Double.parseDouble(plus < 0 ? value : value.substring(0, plus)) * 1000);
+                    config.clockIncrementMillis = plus < 0 ? 0 : Math.round(Double.parseDouble(value.substring(plus + 1)) * 1000);
+                    break;
+                case "queue-timeout":
+                    config.queueTimeoutSeconds = Integer.parseInt(value);
+                    break;
+                case "hover-hz":
+                    config.hoverHz = Integer.parseInt(value);
+                    break;
+                case "ai-after":
+                    config.aiAfterSeconds = Integer.parseInt(value);
+                    break;
+                case "variant":
+                    config.variant = Variant.parse(value);
+                    break;
+                case "ai-level":
+                    config.aiLevel = AIPlayer.Difficulty.valueOf(value.toUpperCase());
+                    break;
+                case "ai-move-ms":
+                    config.aiMoveMillis = Long.parseLong(value);
+                    break;
+                case "ai-threads":
+                    config.aiThreads = Integer.parseInt(value);
+                    break;
+                case "ai-memory-mb":
+                    config.aiMemoryMegabytes = Integer.parseInt(value);
+                    break;
+                case "metrics-port":
+                    config.metricsPort = Integer.parseInt(value);
+                    break;
+                case "journal":
+                    config.journal = value;
+                    break;
+                case "journal-sync-ms":
+                    config.journalSyncMillis = Integer.parseInt(value);
+                    break;
+                case "journal-segment-mb":
+                    config.journalSegmentMegabytes = Integer.parseInt(value);
+                    break;
+                case "rejoin-grace":
+                    config.rejoinGraceSeconds = Integer.parseInt(value);
+                    break;
+                case "resume-grace":
+                    config.resumeGraceSeconds = Integer.parseInt(value);
+                    break;
+                case "book":
+                    config.book = value;
+                    break;
+                case "log":
+                    Log.configure(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option --" + name);
+            }
+        }
+        return config;
+    }
+}
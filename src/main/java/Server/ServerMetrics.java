@@ -0,0 +1,86 @@
+package Server;
+
+import Logging.Log;
+import Metrics.*;
+import Protocol.Protocol;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import javax.management.JMException;
+
+/**
+ * The server's counters and timers. They are static so the hot paths can bump them without
+ * a reference being threaded through every connection and game.
+ */
+final class ServerMetrics {
+    private static final Log log = Log.get(ServerMetrics.class);
+
+    static final Registry registry = new Registry();
+
+    static final Counter connections = registry.counter("connect4_connections_total",
+        "Connections accepted");
+    static final Gauge activePlayers = registry.gauge("connect4_active_players",
+        "Players connected and in a game");
+    static final Gauge waitingPlayers = registry.gauge("connect4_waiting_players",
+        "Players waiting in the lobby for an opponent");
+    static final Counter gamesStarted = registry.counter("connect4_games_started_total",
+        "Games started, including against the computer");
+    static final Counter[] gamesFinished = registry.counters("connect4_games_finished_total",
+        "Games finished, by outcome", "outcome", "win", "tie", "disconnect");
+    static final Counter rematches = registry.counter("connect4_rematches_total",
+        "Games started as a rematch on the connections of the game before");
+    static final Counter resumes = registry.counter("connect4_resumes_total",
+        "Players who got back into their game after losing the connection");
+    static final Counter[] messagesIn = registry.counters("connect4_messages_in_total",
+        "Messages received from clients, by type", "type", opcodeNames());
+    static final Counter[] messagesOut = registry.counters("connect4_messages_out_total",
+        "Messages sent to clients, by type", "type", opcodeNames());
+    static final Counter hoversHeldBack = registry.counter("connect4_hovers_held_back_total",
+        "Times a client fell far enough behind that its opponent's cursor stopped being queued for it");
+    static final Counter slowConsumers = registry.counter("connect4_slow_consumers_total",
+        "Connections cut off for not reading what was sent to them");
+    static final Counter idleReaped = registry.counter("connect4_idle_reaped_total",
+        "Connections closed for not answering heartbeats within the idle timeout");
+    static final Counter flagFalls = registry.counter("connect4_flag_falls_total",
+        "Timed games lost by running out of time");
+    static final Gauge pendingTimers = registry.gauge("connect4_pending_timers",
+        "Timeouts waiting on the timing wheel: turn clocks, heartbeats, resume windows");
+    static final Histogram moveHandling = registry.timer("connect4_move_handling_seconds",
+        "Time from a MOVE being read to its replies being sent, including waiting for the game");
+    static final Histogram monitorHold = registry.timer("connect4_game_monitor_hold_seconds",
+        "Time each move holds the game, under its monitor or on its shard");
+
+    static final int WIN = 0;
+    static final int TIE = 1;
+    static final int DISCONNECT = 2;
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * Publishes the metrics over JMX, and over HTTP on the loopback address unless the port is 0
+     */
+    static void expose(ServerConfig config) {
+        try {
+            JmxExporter.register(registry, "ConnectFour:type=Metrics");
+        } catch (JMException e) {
+            log.warn("Couldn't register metrics with JMX: {}", e);
+        }
+        if (config.metricsPort > 0) {
+            try {
+                HttpExporter.start(registry, new InetSocketAddress(InetAddress.getLoopbackAddress(), config.metricsPort));
+                log.info("Metrics at http://localhost:{}/metrics", config.metricsPort);
+            } catch (IOException e) {
+                log.warn("Couldn't serve metrics over HTTP: {}", e);
+            }
+        }
+    }
+
+    private static String[] opcodeNames() {
+        String[] names = new String[Protocol.OPCODES];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = Protocol.name(i);
+        }
+        return names;
+    }
+}
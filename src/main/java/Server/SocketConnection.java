@@ -0,0 +1,227 @@
+package Server;
+
+import Logging.Log;
+import Protocol.*;
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * A blocking socket connection. run() is the read loop and is given its own
+ * (platform or virtual) thread, it hands every message to the current handler.
+ *
+ * Sending only encodes the message onto the connection's OutboundQueue, a virtual thread of its
+ * own writes the queue out. A client that stops reading only ever blocks that thread, never the
+ * game or opponent sending to it, and is cut off once the queue says it's too far behind.
+ * Closing lets the writer finish first, so the last thing sent still gets there, but a client that
+ * isn't reading only gets the stall time before the socket goes anyway.
+ *
+ * A Heartbeat keeps an eye on the read side, the HEARTBEATs the client answers with stop here.
+ */
+class SocketConnection implements Connection, Runnable {
+    private static final Log log = Log.get(SocketConnection.class);
+    private static final ExecutorService writers = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Socket socket;
+    private final FrameReader input;
+    private final OutputStream output;
+    private final WritableByteChannel out;
+    private final Heartbeat heartbeat;
+    private volatile ConnectionHandler handler;
+
+    // guarded by this
+    private final ByteBuffer scratch = ByteBuffer.allocate(4096);
+    private final OutboundQueue queue;
+    private final long stallMillis;
+    private Codec codec = TextCodec.INSTANCE;
+    private boolean draining = false;
+    // close() was called, the socket goes once the writer is done
+    private boolean closing = false;
+    // a write failed, nothing more goes out
+    private boolean broken = false;
+    // why the connection was cut off, null while it hasn't been
+    private volatile String cutOff;
+
+    /**
+     * Gets input and output streams for the socket
+     */
+    SocketConnection(Socket socket, ServerConfig config) throws IOException {
+        this.socket = socket;
+        // the writer already sends a batch at a time, Nagle would only hold the last message of each back
+        socket.setTcpNoDelay(true);
+        input = new FrameReader(new BufferedInputStream(socket.getInputStream()));
+        output = new BufferedOutputStream(socket.getOutputStream());
+        out = Channels.newChannel(output);
+        queue = new OutboundQueue(config);
+        stallMillis = config.outboundStallMillis;
+        heartbeat = new Heartbeat(this, config, reason -> {
+            cutOff = reason;
+            log.info("Reaping a client, {}", reason);
+            // the read loop wakes up to the closed socket and tells the handler
+            closeNow();
+        });
+    }
+
+    @Override
+    public void setHandler(ConnectionHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Reads messages from the client until it quits or the connection is lost
+     */
+    public void run() {
+        Frame frame = new Frame();
+        heartbeat.start();
+        try {
+            while (true) {
+                if (!input.next(frame)) {
+                    handler.disconnected("end of stream");
+                    return;
+                }
+                ServerMetrics.messagesIn[frame.opcode].increment();
+                heartbeat.heard();
+                if (frame.opcode == Protocol.HEARTBEAT) {
+                    heartbeat.answered();
+                    continue;
+                } else if (frame.opcode == Protocol.PROTOCOL) {
+                    negotiate(frame.a);
+                } else if (!handler.handle(frame)) {
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            handler.disconnected(cutOff != null ? cutOff : e.toString());
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Answers the client's request to switch to binary framing. The answer is the last
+     * text message, everything queued after it is encoded with the new codec.
+     */
+    private void negotiate(int version) {
+        Codec next = Protocol.codec(version);
+        synchronized (this) {
+            send(Protocol.PROTOCOL, next == BinaryCodec.INSTANCE ? version : 0, 0);
+            codec = next;
+        }
+        // the client sent everything after its request with the codec it asked for
+        input.setCodec(next);
+    }
+
+    @Override
+    public synchronized void send(int opcode, int a, int b, String text) {
+        if (opcode == Protocol.OPPONENT_MOUSE && queue.holdHover(a, b)) {
+            return;
+        }
+        ServerMetrics.messagesOut[opcode].increment();
+        scratch.clear();
+        codec.encode(opcode, a, b, text, scratch);
+        scratch.flip();
+        enqueue(ByteBuffer.allocate(scratch.remaining()).put(scratch).flip());
+    }
+
+    @Override
+    public synchronized void send(SharedFrame frame) {
+        ServerMetrics.messagesOut[frame.opcode()].increment();
+        enqueue(frame.bytes(codec));
+    }
+
+    /**
+     * Queues a message and makes sure a writer is on it, call holding the lock
+     */
+    private void enqueue(ByteBuffer bytes) {
+        if (closing || broken) {
+            return;
+        }
+        if (!queue.add(bytes, System.nanoTime())) {
+            cutOff = queue.stalled(System.nanoTime()) ? "stopped reading" : "fell too far behind";
+            log.info("Cutting off a client that {}", cutOff);
+            ServerMetrics.slowConsumers.increment();
+            queue.clear();
+            // the read loop wakes up to the closed socket and tells the handler
+            closeNow();
+            return;
+        }
+        if (!draining) {
+            draining = true;
+            writers.execute(this::drain);
+        }
+    }
+
+    /**
+     * Writes out everything queued, a batch at a time with one flush each, until the queue is empty
+     */
+    private void drain() {
+        List<ByteBuffer> batch = new ArrayList<>();
+        try {
+            while (true) {
+                int bytes;
+                synchronized (this) {
+                    long hover = queue.takeOwedHover();
+                    if (hover != OutboundQueue.NONE) {
+                        send(Protocol.OPPONENT_MOUSE, (int) (hover >> 32), (int) hover);
+                    }
+                    bytes = queue.drainTo(batch);
+                    if (bytes == 0) {
+                        draining = false;
+                        if (closing) {
+                            closeNow();
+                        }
+                        return;
+                    }
+                }
+                for (ByteBuffer buffer : batch) {
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+                output.flush();
+                batch.clear();
+                synchronized (this) {
+                    queue.wrote(bytes, System.nanoTime());
+                }
+            }
+        } catch (IOException e) {
+            // the read side notices the broken socket and tells the handler
+            synchronized (this) {
+                broken = true;
+                queue.clear();
+            }
+            closeNow();
+        }
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return !closing && !socket.isClosed();
+    }
+
+    /**
+     * Closes the socket once whatever is queued has been written
+     */
+    @Override
+    public synchronized void close() {
+        if (closing) {
+            return;
+        }
+        closing = true;
+        if (!draining) {
+            closeNow();
+            return;
+        }
+        TimingWheel.shared.schedule(this::closeNow, stallMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void closeNow() {
+        heartbeat.stop();
+        try {socket.close();} catch (IOException e) {}
+    }
+}
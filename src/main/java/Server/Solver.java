@@ -0,0 +1,362 @@
+package Server;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Negamax search with alpha-beta pruning over the same bitboard layout as BitBoard.
+ *
+ * A position is the pieces of the side to move plus a mask of every occupied square, so
+ * playing a move is two bit operations. Moves which set up the most threats are tried first, ties going
+ * to the centre columns, moves that hand the opponent a win are never tried, and results are kept in a
+ * transposition table of fixed size. Entries are tagged with a generation, so newGame() forgets
+ * them all without touching the table.
+ *
+ * Scores are from the side to move's point of view: positive is good, a forced win scores
+ * above WIN and sooner wins score higher, anything in between comes from the evaluation at the depth limit.
+ *
+ * Not thread safe, each thread searching needs its own Solver.
+ */
+class Solver {
+    static final int WIN = 10_000;
+    private static final int INFINITY = 1_000_000;
+    private static final int H1 = BitBoard.ROWS + 1;
+    private static final int SIZE = BitBoard.ROWS * BitBoard.COLS;
+    private static final int[] ORDER = {3, 2, 4, 1, 5, 0, 6};
+    private static final long BOTTOM = bottomMask();
+    private static final long BOARD = BOTTOM * ((1L << BitBoard.ROWS) - 1);
+    private static final long CENTER = columnMask(BitBoard.COLS / 2);
+
+    // transposition table entry flags
+    private static final int EXACT = 0;
+    private static final int LOWER = 1;
+    private static final int UPPER = 2;
+    // generations fit in the top 5 bits of a table value, 0 is what a cleared table holds
+    private static final int GENERATIONS = 32;
+    // picks evenly between equally good root moves unless the caller brings its own chooser
+    private static final IntUnaryOperator ANY = bound -> ThreadLocalRandom.current().nextInt(bound);
+
+    private final long[] keys;
+    private final int[] values;
+    private final int tableMask;
+    private int generation = 1;
+    private long nodes;
+    private long deadline;
+    // score of the move searchRoot picked
+    private int rootScore;
+    // move ordering for each number of pieces on the board, a search only ever has one node per ply open
+    private final int[][] orderCols = new int[SIZE + 1][BitBoard.COLS];
+    private final int[][] orderThreats = new int[SIZE + 1][BitBoard.COLS];
+
+    /**
+     * @param memoryBytes budget for the transposition table, it never grows past it
+     */
+    Solver(long memoryBytes) {
+        long entries = Math.max(1024, memoryBytes / (Long.BYTES + Integer.BYTES));
+        int size = Integer.highestOneBit((int) Math.min(entries, 1 << 30));
+        keys = new long[size];
+        values = new int[size];
+        tableMask = size - 1;
+    }
+
+    /**
+     * Forgets everything searched so far, so what the next game plays doesn't depend on the games before it
+     */
+    void newGame() {
+        if (++generation == GENERATIONS) {
+            Arrays.fill(values, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * The best column as below, picking at random between equally good ones
+     */
+    int bestMove(long current, long mask, int moves, int maxDepth, long timeMillis) {
+        return bestMove(current, mask, moves, maxDepth, timeMillis, ANY);
+    }
+
+    /**
+     * Iterative deepening search for the best column for the side to move.
+     * Returns the best move of the deepest search that finished in time.
+     * @param current pieces of the side to move
+     * @param mask every occupied square
+     * @param moves pieces on the board
+     * @param maxDepth depth limit, SIZE or more means search to the end of the game
+     * @param timeMillis time limit, 0 for none
+     * @param tieBreak given n, picks one of n equally good moves, from 0 up to but not including n
+     * @return the column to play, or -1 if the board is full
+     */
+    int bestMove(long current, long mask, int moves, int maxDepth, long timeMillis, IntUnaryOperator tieBreak) {
+        deadline = timeMillis > 0 ? System.nanoTime() + timeMillis * 1_000_000 : Long.MAX_VALUE;
+        int best = -1;
+        for (int col : ORDER) {
+            if (canPlay(mask, col)) {
+                if (best < 0) {
+                    best = col;
+                }
+                if (isWinningMove(current, mask, col)) {
+                    return col;
+                }
+            }
+        }
+
+        int limit = Math.min(maxDepth, SIZE - moves);
+        for (int depth = 1; depth <= limit; depth++) {
+            try {
+                best = searchRoot(current, mask, moves, depth, tieBreak);
+                if (Math.abs(rootScore) > WIN) {
+                    // forced result, looking deeper won't change it
+                    break;
+                }
+            } catch (Timeout e) {
+                break;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Exact score of a position, searching to the end of the game with no time limit.
+     * Narrows the score down with null window searches, which prune far more than one wide search.
+     */
+    int solve(long current, long mask, int moves) {
+        deadline = Long.MAX_VALUE;
+        int depth = SIZE - moves;
+        int min = -(WIN + SIZE - moves);
+        int max = WIN + SIZE - moves;
+        while (min < max) {
+            int med = min + (max - min) / 2;
+            // try close to 0 first, telling win, draw and loss apart is the cheap part
+            if (med <= 0 && min / 2 < med) {
+                med = min / 2;
+            } else if (med >= 0 && max / 2 > med) {
+                med = max / 2;
+            }
+            int score = negamax(current, mask, moves, depth, med, med + 1);
+            if (score <= med) {
+                max = score;
+            } else {
+                min = score;
+            }
+        }
+        return min;
+    }
+
+    /**
+     * Number of positions visited since the solver was made
+     */
+    long nodes() {
+        return nodes;
+    }
+
+    /**
+     * The best move at one depth, its score is left in rootScore
+     */
+    private int searchRoot(long current, long mask, int moves, int depth, IntUnaryOperator tieBreak) {
+        int alpha = -INFINITY;
+        int bestCol = -1;
+        int ties = 0;
+        for (int col : ORDER) {
+            if (!canPlay(mask, col)) {
+                continue;
+            }
+            long next = mask | (mask + bottom(col));
+            int score = -negamax(current ^ mask, next, moves + 1, depth - 1, -INFINITY, -alpha + 1);
+            if (score > alpha) {
+                alpha = score;
+                bestCol = col;
+                ties = 1;
+            } else if (score == alpha && tieBreak.applyAsInt(++ties) == 0) {
+                // pick fairly between equally good moves so easy games don't all look the same
+                bestCol = col;
+            }
+        }
+        rootScore = alpha;
+        return bestCol;
+    }
+
+    private int negamax(long current, long mask, int moves, int depth, int alpha, int beta) {
+        if ((++nodes & 4095) == 0 && System.nanoTime() > deadline) {
+            throw Timeout.INSTANCE;
+        }
+        if (moves == SIZE) {
+            return 0;
+        }
+        // the side to move wins straight away if it can
+        long mine = winningSquares(current, mask) & possible(mask);
+        if (mine != 0) {
+            return WIN + (SIZE - moves);
+        }
+        long theirs = winningSquares(current ^ mask, mask);
+        long playable = possible(mask) & ~(theirs >>> 1);
+        long forced = possible(mask) & theirs;
+        if (forced != 0) {
+            // two threats at once can't both be blocked
+            if ((forced & (forced - 1)) != 0) {
+                return -(WIN + (SIZE - moves - 1));
+            }
+            playable &= forced;
+        }
+        if (playable == 0) {
+            // every move lets the opponent win next turn
+            return -(WIN + (SIZE - moves - 1));
+        }
+        if (depth == 0) {
+            return evaluate(current, mask);
+        }
+
+        int slot = (int) (key(current, mask) * 0x9E3779B97F4A7C15L >>> 40) & tableMask;
+        int hashMove = -1;
+        if (keys[slot] == key(current, mask) && values[slot] >>> 27 == generation) {
+            int value = values[slot];
+            int storedDepth = (value >>> 16) & 0x3F;
+            int flag = (value >>> 22) & 0x3;
+            int score = (short) value;
+            hashMove = (value >>> 24) & 0x7;
+            if (storedDepth >= depth) {
+                if (flag == EXACT) {
+                    return score;
+                } else if (flag == LOWER) {
+                    alpha = Math.max(alpha, score);
+                } else {
+                    beta = Math.min(beta, score);
+                }
+                if (alpha >= beta) {
+                    return score;
+                }
+            }
+        }
+
+        // order the moves, best guess first
+        int[] cols = orderCols[moves];
+        int[] threats = orderThreats[moves];
+        int count = 0;
+        for (int col : ORDER) {
+            long move = playable & columnMask(col);
+            if (move == 0) {
+                continue;
+            }
+            int made = col == hashMove ? Integer.MAX_VALUE : Long.bitCount(winningSquares(current | move, mask));
+            int at = count++;
+            while (at > 0 && threats[at - 1] < made) {
+                cols[at] = cols[at - 1];
+                threats[at] = threats[at - 1];
+                at--;
+            }
+            cols[at] = col;
+            threats[at] = made;
+        }
+
+        int originalAlpha = alpha;
+        int best = -INFINITY;
+        int bestCol = 0;
+        for (int i = 0; i < count; i++) {
+            int col = cols[i];
+            long move = playable & columnMask(col);
+            int score = -negamax(current ^ mask, mask | move, moves + 1, depth - 1, -beta, -alpha);
+            if (score > best) {
+                best = score;
+                bestCol = col;
+            }
+            alpha = Math.max(alpha, score);
+            if (alpha >= beta) {
+                break;
+            }
+        }
+
+        int flag = best <= originalAlpha ? UPPER : best >= beta ? LOWER : EXACT;
+        keys[slot] = key(current, mask);
+        values[slot] = (generation << 27) | (bestCol << 24) | (flag << 22) | (depth << 16) | (best & 0xFFFF);
+        return best;
+    }
+
+    /**
+     * Score at the depth limit: open squares that would complete a line for us minus those for the opponent,
+     * with a little extra for holding the centre column
+     */
+    private static int evaluate(long current, long mask) {
+        long opponent = current ^ mask;
+        return 4 * (Long.bitCount(winningSquares(current, mask)) - Long.bitCount(winningSquares(opponent, mask)))
+             + Long.bitCount(current & CENTER) - Long.bitCount(opponent & CENTER);
+    }
+
+    /**
+     * Unique key for a position, also what the opening book uses
+     */
+    static long key(long current, long mask) {
+        return current + mask;
+    }
+
+    static boolean canPlay(long mask, int col) {
+        return (mask & topMask(col)) == 0;
+    }
+
+    static boolean isWinningMove(long current, long mask, int col) {
+        return (winningSquares(current, mask) & possible(mask) & columnMask(col)) != 0;
+    }
+
+    /**
+     * The square each column would take its next piece in
+     */
+    static long possible(long mask) {
+        return (mask + BOTTOM) & BOARD;
+    }
+
+    /**
+     * Empty squares which would complete four in a row for the owner of pieces
+     */
+    static long winningSquares(long pieces, long mask) {
+        // vertical
+        long r = (pieces << 1) & (pieces << 2) & (pieces << 3);
+        // horizontal, then the two diagonals
+        r |= lineEnds(pieces, H1);
+        r |= lineEnds(pieces, H1 - 1);
+        r |= lineEnds(pieces, H1 + 1);
+        return r & (BOARD ^ mask);
+    }
+
+    private static long lineEnds(long pieces, int dir) {
+        long r;
+        long p = (pieces << dir) & (pieces << 2 * dir);
+        r = p & (pieces << 3 * dir);
+        r |= p & (pieces >>> dir);
+        p = (pieces >>> dir) & (pieces >>> 2 * dir);
+        r |= p & (pieces << dir);
+        r |= p & (pieces >>> 3 * dir);
+        return r;
+    }
+
+    static long bottom(int col) {
+        return 1L << (col * H1);
+    }
+
+    private static long topMask(int col) {
+        return 1L << (BitBoard.ROWS - 1 + col * H1);
+    }
+
+    static long columnMask(int col) {
+        return ((1L << BitBoard.ROWS) - 1) << (col * H1);
+    }
+
+    private static long bottomMask() {
+        long mask = 0;
+        for (int col = 0; col < BitBoard.COLS; col++) {
+            mask |= bottom(col);
+        }
+        return mask;
+    }
+
+    /**
+     * Thrown through the search when the time limit runs out, shared since it carries no state
+     */
+    private static final class Timeout extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        static final Timeout INSTANCE = new Timeout();
+
+        private Timeout() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package Server;
+
+import Logging.Log;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A hashed timing wheel, the one timer every game and connection on the server shares. Timeouts are
+ * hung off a ring of buckets, one per tick, and a single thread moves round the ring and runs whatever
+ * is due in the bucket it reaches. Ones further out than a turn of the wheel wait a number of rounds.
+ *
+ * Scheduling and cancelling from other threads only add to a lock free queue, the wheel thread puts
+ * timeouts in their bucket and takes cancelled ones out of theirs, so both cost the same however many
+ * timeouts are pending. Millions of them cost a small object each and nothing per tick beyond the
+ * bucket being visited.
+ *
+ * Timeouts fire up to a tick late and run on the wheel thread, so they have to be quick: queue a
+ * change to a game, send a message, close a socket.
+ */
+class TimingWheel implements Runnable {
+    private static final Log log = Log.get(TimingWheel.class);
+
+    static final TimingWheel shared = new TimingWheel(TimeUnit.MILLISECONDS.toNanos(10), 512, "timing-wheel");
+
+    private final long tickNanos;
+    private final Bucket[] buckets;
+    private final int mask;
+    private final long startedAt = System.nanoTime();
+    private final ConcurrentLinkedQueue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    // ticks done so far, only the wheel thread touches it
+    private long tick = 0;
+
+    /**
+     * Starts the wheel's thread
+     * @param size buckets in the ring, a power of two
+     */
+    TimingWheel(long tickNanos, int size, String name) {
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("The wheel needs a power of two buckets, not " + size);
+        }
+        this.tickNanos = tickNanos;
+        buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+        mask = size - 1;
+        Thread thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs the task on the wheel thread once the delay is up, unless the timeout is cancelled first
+     */
+    Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(this, task, System.nanoTime() - startedAt + unit.toNanos(delay));
+        ServerMetrics.pendingTimers.increment();
+        added.add(timeout);
+        return timeout;
+    }
+
+    public void run() {
+        while (true) {
+            long due = startedAt + (tick + 1) * tickNanos;
+            long wait;
+            while ((wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, wait);
+            }
+            removeCancelled();
+            placeAdded();
+            buckets[(int) (tick & mask)].expire((tick + 1) * tickNanos);
+            tick++;
+        }
+    }
+
+    /**
+     * Puts every newly scheduled timeout in the bucket of the tick it falls in,
+     * ones already due go in the bucket about to be expired
+     */
+    private void placeAdded() {
+        Timeout timeout;
+        while ((timeout = added.poll()) != null) {
+            if (timeout.state != Timeout.PENDING) {
+                continue;
+            }
+            long ticks = Math.max(timeout.deadline / tickNanos, tick);
+            timeout.rounds = (ticks - tick) / buckets.length;
+            buckets[(int) (ticks & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            // one cancelled before it was placed was never in a bucket
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    /**
+     * A scheduled task, to cancel it with
+     */
+    static final class Timeout {
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+        private final TimingWheel wheel;
+        private final Runnable task;
+        // nanoseconds after the wheel started
+        private final long deadline;
+        private volatile int state = PENDING;
+        // the rest only the wheel thread touches
+        private long rounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+
+        /**
+         * Stops the task from running
+         * @return false if it has already run or been cancelled
+         */
+        boolean cancel() {
+            if (!STATE.compareAndSet(this, PENDING, CANCELLED)) {
+                return false;
+            }
+            ServerMetrics.pendingTimers.decrement();
+            wheel.cancelled.add(this);
+            return true;
+        }
+
+        private void expire() {
+            if (!STATE.compareAndSet(this, PENDING, EXPIRED)) {
+                return;
+            }
+            ServerMetrics.pendingTimers.decrement();
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                // one bad task shouldn't stop every other timer
+                log.error("Timer task failed: {}", e);
+            }
+        }
+    }
+
+    /**
+     * The timeouts hung off one slot of the ring, a doubly linked list so any of them comes out in one step
+     */
+    private static final class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+        }
+
+        /**
+         * Runs everything due by the end of this tick, the rest go round once more
+         */
+        void expire(long until) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state == Timeout.CANCELLED) {
+                    remove(timeout);
+                } else if (timeout.rounds <= 0 && timeout.deadline < until) {
+                    remove(timeout);
+                    timeout.expire();
+                } else {
+                    timeout.rounds--;
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package Server;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntConsumer;
+
+/**
+ * Blitz clocks for the two seats of a game. Only the clock of the side to move runs, each move
+ * adds the increment to the mover's time, and when a clock runs out the game is told from the
+ * shared TimingWheel. Not thread safe, only touched from inside Game.run.
+ */
+class TurnClock {
+    private final long[] left = new long[2];
+    private final long baseNanos;
+    private final long incrementNanos;
+    // told the seat whose flag fell, from the wheel thread
+    private final IntConsumer flagFell;
+    // the seat whose clock is running, -1 while neither is
+    private int running = -1;
+    private long since;
+    private TimingWheel.Timeout flag;
+
+    TurnClock(long baseMillis, long incrementMillis, IntConsumer flagFell) {
+        baseNanos = TimeUnit.MILLISECONDS.toNanos(baseMillis);
+        left[0] = left[1] = baseNanos;
+        incrementNanos = TimeUnit.MILLISECONDS.toNanos(incrementMillis);
+        this.flagFell = flagFell;
+    }
+
+    /**
+     * Starts the clock of the seat to move
+     */
+    void start(int seat) {
+        stop();
+        running = seat;
+        since = System.nanoTime();
+        flag = TimingWheel.shared.schedule(() -> flagFell.accept(seat), left[seat], TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The side to move has moved, its clock stops with the increment added and the other side's starts
+     */
+    void moved() {
+        if (running < 0) {
+            return;
+        }
+        int mover = running;
+        stop();
+        left[mover] += incrementNanos;
+        start(1 - mover);
+    }
+
+    /**
+     * Stops whichever clock is running, charging it the time since it started
+     */
+    void stop() {
+        if (running < 0) {
+            return;
+        }
+        flag.cancel();
+        left[running] -= System.nanoTime() - since;
+        running = -1;
+    }
+
+    /**
+     * Whether the seat's clock is running and has run out. The wheel may fire just after a move
+     * stopped the clock, so the game checks this before ending anything.
+     */
+    boolean flagged(int seat) {
+        return running == seat && left[seat] - (System.nanoTime() - since) <= 0;
+    }
+
+    /**
+     * The time control for the players, e.g. "60 s each on the clock, 2 s more a move"
+     */
+    String describe() {
+        String base = TimeUnit.NANOSECONDS.toSeconds(baseNanos) + " s each on the clock";
+        return incrementNanos == 0 ? base : base + ", " + TimeUnit.NANOSECONDS.toSeconds(incrementNanos) + " s more a move";
+    }
+
+    /**
+     * Seconds left on a seat's clock, rounded up so a clock that just started shows all of it
+     */
+    long secondsLeft(int seat) {
+        long nanos = running == seat ? left[seat] - (System.nanoTime() - since) : left[seat];
+        return Math.max(0, TimeUnit.NANOSECONDS.toSeconds(nanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+}